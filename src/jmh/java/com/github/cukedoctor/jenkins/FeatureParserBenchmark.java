@@ -0,0 +1,79 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.parser.FeatureParser;
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a cucumber json report: cukedoctor parser on the whole file and the streaming parser used by the publisher.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureParserBenchmark {
+
+    @Param({"10", "100"})
+    public int features;
+
+    @Param({"20"})
+    public int scenarios;
+
+    @Param({"8"})
+    public int steps;
+
+    @Param({"0", "65536"})
+    public int embeddingBytes;
+
+    private File jsonDir;
+
+    private File attachmentsDir;
+
+    @Setup
+    public void writeReport() throws IOException {
+        jsonDir = Files.createTempDirectory("benchmark-json").toFile();
+        attachmentsDir = Files.createTempDirectory("benchmark-attachments").toFile();
+        new SyntheticCucumberJson(features, scenarios, steps, embeddingBytes).write(new File(jsonDir, "cucumber.json"));
+    }
+
+    @TearDown
+    public void deleteReport() throws IOException {
+        Util.deleteRecursive(jsonDir);
+        Util.deleteRecursive(attachmentsDir);
+    }
+
+    @Benchmark
+    public List<Feature> findAndParse() {
+        return FeatureParser.findAndParse(jsonDir.getAbsolutePath());
+    }
+
+    @Benchmark
+    public List<Feature> streamingParse() throws IOException {
+        return new StreamingFeatureParser(null).parse(jsonDir, new String[]{"cucumber.json"});
+    }
+
+    @Benchmark
+    public List<Feature> streamingParseExtractingEmbeddings() throws IOException {
+        return new StreamingFeatureParser(attachmentsDir).parse(jsonDir, new String[]{"cucumber.json"});
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.config.CukedoctorConfig;
+import com.github.cukedoctor.jenkins.model.FormatType;
+import com.github.cukedoctor.jenkins.model.TocType;
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsciiDoc generation and rendering of parsed features, as done by the publisher on master with pooled Asciidoctor instances.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenerateDocumentationBenchmark {
+
+    @Param({"html5", "pdf"})
+    public String backend;
+
+    @Param({"10", "50"})
+    public int features;
+
+    @Param({"20"})
+    public int scenarios;
+
+    @Param({"8"})
+    public int steps;
+
+    private File docsDir;
+
+    private List<Feature> parsedFeatures;
+
+    private CukedoctorPublisher publisher;
+
+    private DocumentationGenerator generator;
+
+    private CukedoctorConfig cukedoctorConfig;
+
+    @Setup
+    public void parseReport() throws IOException {
+        docsDir = Files.createTempDirectory("benchmark-docs").toFile();
+        File json = new SyntheticCucumberJson(features, scenarios, steps, 0).write(new File(docsDir, "cucumber.json"));
+        parsedFeatures = new StreamingFeatureParser(null).parse(docsDir, new String[]{json.getName()});
+        publisher = new CukedoctorPublisher(null, FormatType.ALL, TocType.RIGHT, true, true, "Benchmark", false, false, false, false, false);
+        generator = new DocumentationGenerator(FormatType.ALL, TocType.RIGHT, "Benchmark", true, true, false, false, false, false, false);
+        cukedoctorConfig = generator.createCukedoctorConfig(docsDir.getAbsolutePath());
+    }
+
+    @TearDown
+    public void deleteDocs() throws IOException {
+        Util.deleteRecursive(docsDir);
+    }
+
+    @Benchmark
+    public long generateDocumentation() throws InterruptedException {
+        publisher.generateDocumentation(parsedFeatures, generator.createDocumentAttributes(backend), cukedoctorConfig,
+                generator.getAdocPath(docsDir, backend), Collections.emptyList());
+        return new File(docsDir, "documentation" + (DocumentationGenerator.isPdf(backend) ? ".pdf" : ".html")).length();
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.jenkins.model.FormatType;
+import com.github.cukedoctor.jenkins.model.TocType;
+import hudson.Util;
+import org.kohsuke.stapler.StaplerRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serving of the default themed html documentation by {@link DocsRenderer}: pre-compressed variant (gzip), themed
+ * documentation from the in memory cache or themed on the fly (identity, not cached).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderHtmlDocBenchmark {
+
+    @Param({"gzip", "identity"})
+    public String acceptEncoding;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    @Param({"50"})
+    public int features;
+
+    private File docsDir;
+
+    private DocsRenderer renderer;
+
+    private StaplerRequest request;
+
+    @Setup
+    public void renderDocumentation() throws IOException, InterruptedException {
+        docsDir = Files.createTempDirectory("benchmark-docs").toFile();
+        File json = new SyntheticCucumberJson(features, 20, 8, 0).write(new File(docsDir, "cucumber.json"));
+        List<Feature> parsedFeatures = new StreamingFeatureParser(null).parse(docsDir, new String[]{json.getName()});
+        DocumentationGenerator generator = new DocumentationGenerator(FormatType.HTML, TocType.RIGHT, "Benchmark", true, true, false, false, false, false, false);
+        new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Benchmark", false, false, false, false, false)
+                .generateDocumentation(parsedFeatures, generator.createDocumentAttributes("html5"), generator.createCukedoctorConfig(docsDir.getAbsolutePath()),
+                        generator.getAdocPath(docsDir, "html5"), Collections.emptyList());
+        File html = new File(docsDir, "documentation.html");
+        File theme = new File(docsDir, "themes/" + DocsRenderer.DEFAULT_THEME + ".css");
+        if (!theme.isFile()) { //themes are written by the cukedoctor theme extension, a stand-in keeps the benchmark meaningful without it
+            Files.createDirectories(theme.getParentFile().toPath());
+            Files.write(theme.toPath(), "body { font-family: sans-serif; }\n".getBytes(StandardCharsets.UTF_8));
+        }
+        DocsRenderer.compress(html, DocsRenderer.DEFAULT_THEME);
+        renderer = new DocsRenderer(html, "benchmark");
+        request = StaplerStubs.request(Collections.singletonMap("Accept-Encoding", acceptEncoding));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (!cached) {
+            ThemedDocsCache.get().clear();
+        }
+    }
+
+    @TearDown
+    public void deleteDocs() throws IOException {
+        ThemedDocsCache.get().clear();
+        Util.deleteRecursive(docsDir);
+    }
+
+    @Benchmark
+    public long renderHtmlDoc() throws IOException, ServletException {
+        StaplerStubs.CountingOutputStream body = new StaplerStubs.CountingOutputStream();
+        renderer.doIndex(request, StaplerStubs.response(body));
+        return body.getCount();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.cukedoctor.jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Minimal Stapler request and response so documentation serving can be benchmarked without a servlet container.
+ * Only what {@link DocsRenderer} uses is implemented, other methods return default values.
+ */
+final class StaplerStubs {
+
+    private StaplerStubs() {
+    }
+
+    /**
+     * @param headers request headers, parameters are not supported
+     */
+    static StaplerRequest request(final Map<String, String> headers) {
+        return (StaplerRequest) Proxy.newProxyInstance(StaplerStubs.class.getClassLoader(), new Class<?>[]{StaplerRequest.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getHeader":
+                    return headers.get(args[0]);
+                case "getDateHeader":
+                    return -1L;
+                case "getMethod":
+                    return "GET";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @param body receives the response body
+     */
+    static StaplerResponse response(final CountingOutputStream body) {
+        return (StaplerResponse) Proxy.newProxyInstance(StaplerStubs.class.getClassLoader(), new Class<?>[]{StaplerResponse.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getOutputStream")) {
+                return body;
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * Discards written bytes and only counts them.
+     */
+    static final class CountingOutputStream extends ServletOutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.cukedoctor.jenkins;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Writes synthetic cucumber json reports of a given shape, used as benchmark input.
+ * <p>
+ * Every scenario passes and, when <code>embeddingBytes</code> is positive, its last step has a png embedding of that
+ * size. Content is generated from a fixed seed so reports of the same shape are identical across runs, embeddings are
+ * all different so they are not deduplicated.
+ * <p>
+ * It can also be run on its own: <code>SyntheticCucumberJson &lt;output file&gt; &lt;features&gt; &lt;scenarios per feature&gt;
+ * &lt;steps per scenario&gt; &lt;embedding bytes&gt;</code>.
+ */
+public final class SyntheticCucumberJson {
+
+    private final int features;
+
+    private final int scenariosPerFeature;
+
+    private final int stepsPerScenario;
+
+    private final int embeddingBytes;
+
+    SyntheticCucumberJson(int features, int scenariosPerFeature, int stepsPerScenario, int embeddingBytes) {
+        this.features = features;
+        this.scenariosPerFeature = scenariosPerFeature;
+        this.stepsPerScenario = stepsPerScenario;
+        this.embeddingBytes = embeddingBytes;
+    }
+
+    File write(File file) throws IOException {
+        Random random = new Random(42);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write('[');
+            for (int f = 1; f <= features; f++) {
+                if (f > 1) {
+                    out.write(',');
+                }
+                writeFeature(out, f, random);
+            }
+            out.write(']');
+        }
+        return file;
+    }
+
+    private void writeFeature(Writer out, int feature, Random random) throws IOException {
+        out.write("{\"uri\":\"features/feature" + feature + ".feature\",\"id\":\"feature-" + feature + "\",\"keyword\":\"Feature\","
+                + "\"name\":\"Feature " + feature + "\",\"line\":1,\"description\":\"  In order to benchmark living documentation\\n"
+                + "  As a plugin developer\\n  I want features of any size\",\"tags\":[{\"name\":\"@benchmark\",\"line\":1}],\"elements\":[");
+        for (int s = 1; s <= scenariosPerFeature; s++) {
+            if (s > 1) {
+                out.write(',');
+            }
+            out.write("{\"id\":\"feature-" + feature + ";scenario-" + s + "\",\"keyword\":\"Scenario\",\"name\":\"Scenario " + s + "\","
+                    + "\"line\":" + (s * 10) + ",\"description\":\"\",\"type\":\"scenario\",\"steps\":[");
+            for (int step = 1; step <= stepsPerScenario; step++) {
+                if (step > 1) {
+                    out.write(',');
+                }
+                out.write("{\"keyword\":\"" + (step == 1 ? "Given " : step == stepsPerScenario ? "Then " : "And ") + "\","
+                        + "\"name\":\"step " + step + " of scenario " + s + " in feature " + feature + "\",\"line\":" + (s * 10 + step) + ","
+                        + "\"match\":{\"location\":\"BenchmarkSteps.step" + step + "()\"},"
+                        + "\"result\":{\"status\":\"passed\",\"duration\":" + (1000000 + random.nextInt(1000000)) + "}");
+                if (embeddingBytes > 0 && step == stepsPerScenario) {
+                    byte[] embedding = new byte[embeddingBytes];
+                    random.nextBytes(embedding);
+                    out.write(",\"embeddings\":[{\"mime_type\":\"image/png\",\"data\":\"" + Base64.getEncoder().encodeToString(embedding) + "\"}]");
+                }
+                out.write('}');
+            }
+            out.write("]}");
+        }
+        out.write("]}");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("Usage: SyntheticCucumberJson <output file> <features> <scenarios per feature> <steps per scenario> <embedding bytes>");
+            System.exit(1);
+        }
+        File file = new SyntheticCucumberJson(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Integer.parseInt(args[4])).write(new File(args[0]));
+        System.out.println("Wrote " + file.length() + " bytes to " + file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.PeriodicWork;
+import jenkins.util.Timer;
+import org.asciidoctor.Asciidoctor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin wide pool of initialized Asciidoctor instances.
+ * <p>
+ * Creating an Asciidoctor instance boots a JRuby runtime and registers cukedoctor extensions which often takes longer than
+ * rendering the documentation itself, so instances are kept after rendering and reused by next renders. Html rendering uses
+ * instances with cukedoctor extensions and pdf rendering instances without them, so each kind has its own idle instances.
+ */
+public final class AsciidoctorPool {
+
+    private static final Logger LOG = Logger.getLogger(AsciidoctorPool.class.getName());
+
+    private static final AsciidoctorPool INSTANCE = new AsciidoctorPool();
+
+    private final Deque<PooledAsciidoctor> idleWithExtensions = new ArrayDeque<>();
+
+    private final Deque<PooledAsciidoctor> idleWithoutExtensions = new ArrayDeque<>();
+
+    private AsciidoctorPool() {
+    }
+
+    static AsciidoctorPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param extensions whether cukedoctor extensions must be enabled (html) or not (pdf)
+     * @return an idle instance or a new one if there is none. It must be given back with {@link #release(Asciidoctor, boolean)}
+     * or {@link #discard(Asciidoctor)}
+     */
+    Asciidoctor borrow(boolean extensions) {
+        synchronized (this) {
+            PooledAsciidoctor pooled = idle(extensions).pollFirst();
+            if (pooled != null) {
+                return pooled.asciidoctor;
+            }
+        }
+        return DocumentationGenerator.createAsciidoctor(extensions);
+    }
+
+    /**
+     * Gives the instance back to the pool, it is shut down if the pool is full.
+     */
+    void release(Asciidoctor asciidoctor, boolean extensions) {
+        synchronized (this) {
+            Deque<PooledAsciidoctor> idle = idle(extensions);
+            if (idle.size() < getPoolSize()) {
+                idle.addFirst(new PooledAsciidoctor(asciidoctor));
+                return;
+            }
+        }
+        discard(asciidoctor);
+    }
+
+    /**
+     * Shuts down an instance which must not be reused, e.g. after a failed rendering.
+     */
+    void discard(Asciidoctor asciidoctor) {
+        try {
+            asciidoctor.shutdown();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not shutdown Asciidoctor instance.", e);
+        }
+    }
+
+    /**
+     * Creates idle instances (with and without extensions) up to the pool size.
+     */
+    void warmUp() {
+        for (boolean extensions : new boolean[]{true, false}) {
+            while (idleCount(extensions) < getPoolSize()) {
+                release(DocumentationGenerator.createAsciidoctor(extensions), extensions);
+            }
+        }
+    }
+
+    /**
+     * Shuts down instances which were not used for longer than the configured idle time.
+     */
+    void evictIdle() {
+        long maxIdleMillis = TimeUnit.MINUTES.toMillis(getIdleMinutes());
+        long now = System.currentTimeMillis();
+        Deque<Asciidoctor> evicted = new ArrayDeque<>();
+        synchronized (this) {
+            for (Deque<PooledAsciidoctor> idle : Arrays.asList(idleWithExtensions, idleWithoutExtensions)) {
+                for (Iterator<PooledAsciidoctor> it = idle.iterator(); it.hasNext(); ) {
+                    PooledAsciidoctor pooled = it.next();
+                    if (now - pooled.idleSince >= maxIdleMillis) {
+                        it.remove();
+                        evicted.add(pooled.asciidoctor);
+                    }
+                }
+            }
+        }
+        for (Asciidoctor asciidoctor : evicted) {
+            discard(asciidoctor);
+        }
+    }
+
+    synchronized int idleCount(boolean extensions) {
+        return idle(extensions).size();
+    }
+
+    private Deque<PooledAsciidoctor> idle(boolean extensions) {
+        return extensions ? idleWithExtensions : idleWithoutExtensions;
+    }
+
+    /**
+     * @return how many idle instances of each kind are kept, see {@link LivingDocumentationConfiguration#getEnginePoolSize()}
+     */
+    static int getPoolSize() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        return configuration != null ? configuration.getEnginePoolSize() : LivingDocumentationConfiguration.DEFAULT_ENGINE_POOL_SIZE;
+    }
+
+    private static int getIdleMinutes() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        return configuration != null ? configuration.getEngineIdleMinutes() : LivingDocumentationConfiguration.DEFAULT_ENGINE_IDLE_MINUTES;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmUpOnStartup() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        if (configuration != null && configuration.isWarmUpEngines()) {
+            Timer.get().submit(() -> {
+                try {
+                    INSTANCE.warmUp();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Could not warm up Asciidoctor instances.", e);
+                }
+            });
+        }
+    }
+
+    private static final class PooledAsciidoctor {
+
+        private final Asciidoctor asciidoctor;
+
+        private final long idleSince = System.currentTimeMillis();
+
+        private PooledAsciidoctor(Asciidoctor asciidoctor) {
+            this.asciidoctor = asciidoctor;
+        }
+    }
+
+    @Extension
+    public static class IdleEviction extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            INSTANCE.evictIdle();
+        }
+    }
+}
@@ -3,26 +3,81 @@ package com.github.cukedoctor.jenkins;
 import com.github.cukedoctor.jenkins.model.CukedoctorBuild;
 import com.github.cukedoctor.jenkins.model.FormatType;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.DirectoryBrowserSupport;
 import hudson.model.Run;
 import hudson.util.IOUtils;
 import jenkins.model.RunAction2;
+import org.kohsuke.stapler.HttpResponses;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 public class CukedoctorBuildAction extends CukedoctorBaseAction implements RunAction2 {
 
+    /**
+     * log of documentation rendered in background, in the documentation directory
+     */
+    static final String RENDERING_LOG = "rendering.log";
+
+    /**
+     * how much of the rendering log is shown on the rendering page
+     */
+    private static final int RENDERING_LOG_TAIL = 64 * 1024;
+
+    /**
+     * State of documentation rendered in background, see {@link CukedoctorPublisher#isRenderInBackground()}
+     */
+    public enum RenderingStatus {
+        RENDERING, FAILED
+    }
+
     private transient Run<?, ?> build;
     private final CukedoctorBuild cukedoctorBuild;
+    private final String fingerprint;
+    private final Integer reusedFrom;
+    private PublishMetrics publishMetrics;
+    /**
+     * whether only the AsciiDoc was published, formats being rendered when first viewed
+     */
+    private boolean renderOnDemand;
+    /**
+     * rendering timeouts, in minutes, of documentation rendered on demand. <code>null</code> for the defaults
+     */
+    private Integer htmlTimeout;
+    private Integer pdfTimeout;
+    /**
+     * <code>null</code> when documentation is rendered
+     */
+    private volatile RenderingStatus renderingStatus;
+    /**
+     * controls of the background renders, only known by the instance which started them
+     */
+    private transient List<RenderControl> renderControls = Collections.emptyList();
 
     public CukedoctorBuildAction(Run<?, ?> build, CukedoctorBuild cukedoctorBuild) {
+        this(build, cukedoctorBuild, null, null);
+    }
+
+    /**
+     * @param fingerprint documentation inputs fingerprint, see {@link DocumentationFingerprint}
+     * @param reusedFrom  number of the build which documentation was reused or <code>null</code> if documentation was rendered by this build
+     */
+    public CukedoctorBuildAction(Run<?, ?> build, CukedoctorBuild cukedoctorBuild, String fingerprint, Integer reusedFrom) {
         this.build = build;
         this.cukedoctorBuild = cukedoctorBuild;
+        this.fingerprint = fingerprint;
+        this.reusedFrom = reusedFrom;
     }
 
     @Override
@@ -30,20 +85,58 @@ public class CukedoctorBuildAction extends CukedoctorBaseAction implements RunAc
         return this.build.getDisplayName();
     }
 
+    @Override
+    public String getDisplayName() {
+        return isRendering() ? TITLE + " (rendering)" : super.getDisplayName();
+    }
+
     private File getDocsPath() {
         return new File(build.getRootDir(), BASE_URL + "/documentation" + (cukedoctorBuild.getFormat().equals(FormatType.HTML) ? ".html" : cukedoctorBuild.getFormat().equals(FormatType.PDF) ? ".pdf" : "-all.html"));
     }
 
-    public DocsRenderer getDocs() {
-        return new DocsRenderer(getDocsPath(), build.getFullDisplayName());
+    /**
+     * @return documentation renderer or, for multi page documentation, a redirect to its index page
+     */
+    public Object getDocs() {
+        if (renderingStatus != null) {
+            return HttpResponses.redirectTo(".");
+        }
+        if (cukedoctorBuild.isMultiPageDocs()) {
+            return HttpResponses.redirectTo(DocumentationGenerator.PAGES_DIR + "/" + DocumentationGenerator.PAGES_INDEX);
+        }
+        return createDocsRenderer(getDocsPath());
+    }
+
+    /**
+     * @param page page of multi page documentation, e.g. <code>index.html</code>
+     * @return renderer of the page or <code>null</code> (not found) if there is no such page
+     */
+    public DocsRenderer getPages(String page) {
+        if (page == null || !DocumentationGenerator.PAGE_NAME.matcher(page).matches()) {
+            return null;
+        }
+        File pageFile = new File(build.getRootDir(), BASE_URL + "/" + DocumentationGenerator.PAGES_DIR + "/" + page);
+        return pageFile.isFile() ? new DocsRenderer(pageFile, build.getFullDisplayName()) : null;
     }
 
     public DocsRenderer getDocsHtml() {
-        return new DocsRenderer(new File(build.getRootDir(), BASE_URL + "/documentation.html"), build.getFullDisplayName());
+        return createDocsRenderer(new File(build.getRootDir(), BASE_URL + "/documentation.html"));
     }
 
     public DocsRenderer getDocsPdf() {
-        return new DocsRenderer(new File(build.getRootDir(), BASE_URL + "/documentation.pdf"), build.getFullDisplayName());
+        return createDocsRenderer(new File(build.getRootDir(), BASE_URL + "/documentation.pdf"));
+    }
+
+    /**
+     * Documentation published on demand is rendered from its AsciiDoc by the renderer, other documentation is served as is.
+     */
+    private DocsRenderer createDocsRenderer(File docsFile) {
+        final boolean pdf = docsFile.getName().endsWith(".pdf");
+        if (!renderOnDemand || !(pdf || docsFile.getName().equals("documentation.html"))) {
+            return new DocsRenderer(docsFile, build.getFullDisplayName());
+        }
+        final File adocFile = new File(build.getRootDir(), BASE_URL + "/" + DocumentationGenerator.getAdocName(cukedoctorBuild.getFormat(), pdf ? "pdf" : "html5"));
+        return new DocsRenderer(docsFile, build.getFullDisplayName(), build.getParent().getFullName(), adocFile, getRenderTimeout(pdf));
     }
 
     public CukedoctorBuild getCukedoctorBuild() {
@@ -54,8 +147,141 @@ public class CukedoctorBuildAction extends CukedoctorBaseAction implements RunAc
         return build;
     }
 
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return <code>true</code> if documentation was copied from a previous build with the same inputs instead of being rendered
+     */
+    public boolean isReused() {
+        return reusedFrom != null;
+    }
+
+    public Integer getReusedFrom() {
+        return reusedFrom;
+    }
+
+    /**
+     * @return duration and size of each phase of the publish which attached this action, <code>null</code> for
+     * documentation published before they were recorded
+     */
+    public PublishMetrics getPublishMetrics() {
+        return publishMetrics;
+    }
+
+    void setPublishMetrics(PublishMetrics publishMetrics) {
+        this.publishMetrics = publishMetrics;
+    }
+
+    /**
+     * @return <code>true</code> if formats are rendered the first time they are viewed, see {@link RenderedDocsCache}
+     */
+    public boolean isRenderOnDemand() {
+        return renderOnDemand;
+    }
+
+    void setRenderOnDemand(boolean renderOnDemand) {
+        this.renderOnDemand = renderOnDemand;
+    }
+
+    /**
+     * @param htmlTimeout html rendering timeout, in minutes, of the publisher which published the documentation on demand
+     * @param pdfTimeout  pdf rendering timeout, in minutes
+     */
+    void setRenderTimeouts(int htmlTimeout, int pdfTimeout) {
+        this.htmlTimeout = htmlTimeout;
+        this.pdfTimeout = pdfTimeout;
+    }
+
+    /**
+     * @return rendering timeout, in minutes, of documentation rendered on demand
+     */
+    int getRenderTimeout(boolean pdf) {
+        final Integer timeout = pdf ? pdfTimeout : htmlTimeout;
+        if (timeout != null && timeout > 0) {
+            return timeout;
+        }
+        return pdf ? CukedoctorPublisher.DEFAULT_PDF_TIMEOUT : CukedoctorPublisher.DEFAULT_HTML_TIMEOUT;
+    }
+
+    /**
+     * @return <code>true</code> while documentation is rendered in background
+     */
+    public boolean isRendering() {
+        return renderingStatus == RenderingStatus.RENDERING;
+    }
+
+    /**
+     * @return <code>true</code> if documentation rendered in background could not be rendered, see {@link #getRenderingLog()}
+     */
+    public boolean isRenderingFailed() {
+        return renderingStatus == RenderingStatus.FAILED;
+    }
+
+    /**
+     * @return what background renders are doing, e.g. <code>rendering html5</code>
+     */
+    public String getRenderingPhase() {
+        List<String> phases = new ArrayList<>();
+        for (RenderControl control : renderControls) {
+            phases.add(control.getPhase());
+        }
+        return phases.isEmpty() ? RenderControl.QUEUED : Util.join(phases, ", ");
+    }
+
+    /**
+     * @return end of the log of documentation rendered in background, empty if there is none
+     */
+    public String getRenderingLog() throws IOException {
+        File log = new File(build.getRootDir(), BASE_URL + "/" + RENDERING_LOG);
+        if (!log.isFile()) {
+            return "";
+        }
+        try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+            long start = Math.max(file.length() - RENDERING_LOG_TAIL, 0);
+            byte[] tail = new byte[(int) (file.length() - start)];
+            file.seek(start);
+            file.readFully(tail);
+            return new String(tail, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param controls controls of the background renders, filled as renders are submitted
+     */
+    void startRendering(List<RenderControl> controls) {
+        renderControls = controls;
+        renderingStatus = RenderingStatus.RENDERING;
+    }
+
+    void finishRendering(boolean rendered, PublishMetrics metrics) {
+        publishMetrics = metrics;
+        renderControls = Collections.emptyList();
+        renderingStatus = rendered ? null : RenderingStatus.FAILED;
+    }
+
+    /**
+     * Serves attachments extracted from cucumber embeddings, see {@link DocsRenderer#serveAttachment(File, StaplerRequest, StaplerResponse)}.
+     */
+    public void doAttachments(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        DocsRenderer.serveAttachment(new File(build.getRootDir(), BASE_URL), req, rsp);
+    }
+
     public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
 
+        if (renderingStatus != null) {
+            //progress page, refreshed until documentation is ready
+            RequestDispatcher view = req.getView(this, "rendering.jelly");
+            view.forward(req, rsp);
+            return;
+        }
+
+        if (cukedoctorBuild.isMultiPageDocs()) {
+            rsp.sendRedirect2(req.getContextPath() + "/" + build.getUrl() + BASE_URL + "/" + DocumentationGenerator.PAGES_DIR + "/" + DocumentationGenerator.PAGES_INDEX);
+            return;
+        }
+
         File docsPath = getDocsPath();
 
         if (docsPath.getName().endsWith("all.html")) {
@@ -80,6 +306,11 @@ public class CukedoctorBuildAction extends CukedoctorBaseAction implements RunAc
     @Override
     public void onLoad(Run<?, ?> run) {
         onAttached(run);
+        renderControls = Collections.emptyList();
+        if (isRendering() && !RenderingScheduler.get().isRenderingInBackground(run.getExternalizableId())) {
+            //Jenkins restarted while documentation was rendered in background
+            renderingStatus = RenderingStatus.FAILED;
+        }
     }
 
     private void createAllDocsPage(File allDocsPath) {
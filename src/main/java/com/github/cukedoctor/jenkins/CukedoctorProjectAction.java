@@ -5,16 +5,30 @@ import hudson.Extension;
 import hudson.model.Action;
 import hudson.model.Job;
 import hudson.model.ProminentProjectAction;
-import hudson.model.Run;
 import jenkins.model.TransientActionFactory;
-
-import java.util.ArrayList;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class CukedoctorProjectAction extends CukedoctorBaseAction implements ProminentProjectAction {
 
+    static final int DEFAULT_PAGE_SIZE = 50;
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    private static final String DAY_FORMAT = "yyyy-MM-dd";
+
     private final transient Job<?, ?> job;
 
     private String jobName;
@@ -43,23 +57,74 @@ public class CukedoctorProjectAction extends CukedoctorBaseAction implements Pro
         return cukedoctorBuilds;
     }
 
+    /**
+     * @return how many builds the history page loads at once
+     */
+    public int getPageSize() {
+        return DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Page of the documentation history, as json, used by the history page to load builds on demand.
+     * <p>
+     * Parameters: <code>offset</code> (default 0), <code>size</code> (default {@value #DEFAULT_PAGE_SIZE}, at most {@value #MAX_PAGE_SIZE})
+     * and an optional period with <code>from</code> and <code>to</code> days (<code>yyyy-MM-dd</code>, inclusive).
+     */
+    public void doHistory(StaplerRequest request, StaplerResponse response) throws IOException {
+        final Date from;
+        final Date to;
+        try {
+            from = parseDay(request.getParameter("from"), false);
+            to = parseDay(request.getParameter("to"), true);
+        } catch (ParseException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Dates must be formatted as " + DAY_FORMAT);
+            return;
+        }
+        final int offset = Math.max(parseInt(request.getParameter("offset"), 0), 0);
+        final int size = Math.min(Math.max(parseInt(request.getParameter("size"), DEFAULT_PAGE_SIZE), 1), MAX_PAGE_SIZE);
+        final List<CukedoctorBuild> builds = DocumentationIndex.of(job).getBuilds(from, to);
+
+        JSONArray page = new JSONArray();
+        for (CukedoctorBuild build : builds.subList(Math.min(offset, builds.size()), Math.min(offset + size, builds.size()))) {
+            page.add(new JSONObject()
+                    .element("number", build.getBuildNumber())
+                    .element("time", build.getBuildTime().getTime())
+                    .element("html", build.isHtmlDocs())
+                    .element("pdf", build.isPdfDocs())
+                    .element("pages", build.isMultiPageDocs()));
+        }
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(new JSONObject()
+                .element("total", builds.size())
+                .element("offset", offset)
+                .element("builds", page)
+                .toString());
+    }
+
+    private static Date parseDay(String day, boolean endOfDay) throws ParseException {
+        if (day == null || day.trim().isEmpty()) {
+            return null;
+        }
+        Date date = new SimpleDateFormat(DAY_FORMAT).parse(day.trim());
+        return endOfDay ? new Date(date.getTime() + TimeUnit.DAYS.toMillis(1) - 1) : date;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
 
     @Extension
     public static class CukedoctorActionFactory extends TransientActionFactory<Job<?, ?>> {
 
         @Override
         public Collection<? extends Action> createFor(Job<?, ?> j) {
-            List<CukedoctorBuild> cukedoctorBuilds = new ArrayList<>();
-
-            //collects the list of builds that published living docs to show on the documentation history page
-            if (j.getBuilds() != null && !j.getBuilds().isEmpty()) {
-                for (Run<?, ?> build : j.getBuilds()) {
-                    CukedoctorBuildAction cukedoctorBuildAction = build.getAction(CukedoctorBuildAction.class);
-                    if (cukedoctorBuildAction != null) {
-                        cukedoctorBuilds.add(cukedoctorBuildAction.getCukedoctorBuild());
-                    }
-                }
-            }
+            //builds that published living docs, shown on the documentation history page
+            List<CukedoctorBuild> cukedoctorBuilds = DocumentationIndex.of(j).getBuilds();
             if (cukedoctorBuilds.isEmpty()) {
                 return Collections.emptyList();
             }
@@ -23,35 +23,31 @@
  */
 package com.github.cukedoctor.jenkins;
 
-import com.github.cukedoctor.Cukedoctor;
-import com.github.cukedoctor.CukedoctorMain;
-import com.github.cukedoctor.api.CukedoctorConverter;
 import com.github.cukedoctor.api.DocumentAttributes;
 import com.github.cukedoctor.api.model.Feature;
 import com.github.cukedoctor.config.CukedoctorConfig;
-import com.github.cukedoctor.config.GlobalConfig;
 import com.github.cukedoctor.jenkins.model.CukedoctorBuild;
 import com.github.cukedoctor.jenkins.model.FormatType;
 import com.github.cukedoctor.jenkins.model.TocType;
-import com.github.cukedoctor.parser.FeatureParser;
-import com.github.cukedoctor.util.FileUtil;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractProject;
+import hudson.model.Job;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
 import jenkins.tasks.SimpleBuildStep;
-import org.asciidoctor.Asciidoctor;
-import org.asciidoctor.OptionsBuilder;
-import org.asciidoctor.SafeMode;
-import org.asciidoctor.extension.ExtensionGroup;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -61,13 +57,22 @@ import org.kohsuke.stapler.DataBoundSetter;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import static com.github.cukedoctor.extension.CukedoctorExtensionRegistry.CUKEDOCTOR_EXTENSION_GROUP_NAME;
 import static com.github.cukedoctor.util.Assert.hasText;
 
 /**
@@ -75,6 +80,23 @@ import static com.github.cukedoctor.util.Assert.hasText;
  */
 public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
 
+    private static final Logger LOG = Logger.getLogger(CukedoctorPublisher.class.getName());
+
+    /**
+     * Rendered documentation files, copied when a build reuses documentation of a previous build
+     */
+    static final String RENDERED_DOCS = "documentation.html,documentation.pdf,documentation-all.html,themes/**," + FeatureAttachment.ATTACHMENTS_DIR + "/**,"
+            + DocumentationGenerator.PAGES_DIR + "/*.html";
+
+    /**
+     * How many previous builds are searched for documentation with the same fingerprint
+     */
+    private static final int MAX_BUILDS_TO_REUSE = 10;
+
+    static final int DEFAULT_HTML_TIMEOUT = 5;
+
+    static final int DEFAULT_PDF_TIMEOUT = 15;
+
     private String featuresDir;
 
     private boolean numbered;
@@ -97,7 +119,38 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
 
     private boolean hideTags;
 
-    private CukedoctorMain cukedoctor;
+    private boolean copyJsonFiles;
+
+    private boolean renderOnAgent;
+
+    private boolean renderInBackground;
+
+    private boolean renderOnDemand;
+
+    /**
+     * html rendering timeout in minutes, <code>null</code> for {@link #DEFAULT_HTML_TIMEOUT}
+     */
+    private Integer htmlTimeout;
+
+    /**
+     * pdf rendering timeout in minutes, <code>null</code> for {@link #DEFAULT_PDF_TIMEOUT}
+     */
+    private Integer pdfTimeout;
+
+    /**
+     * patterns of cucumber json files relative to features dir, <code>null</code> for {@link InputDiscovery#DEFAULT_JSON_INCLUDES}
+     */
+    private String jsonIncludes;
+
+    /**
+     * patterns of files and directories skipped when searching inputs, <code>null</code> for {@link InputDiscovery#DEFAULT_EXCLUDES}
+     */
+    private String excludes;
+
+    /**
+     * paths or patterns of customization files relative to workspace, <code>null</code> for {@link DocumentationFingerprint#CUSTOMIZATION_FILES}
+     */
+    private String customizationFiles;
 
     @DataBoundConstructor
     public CukedoctorPublisher(String featuresDir, FormatType format, TocType toc, Boolean numbered, Boolean sectAnchors, String title, boolean hideFeaturesSection, boolean hideSummary,
@@ -113,7 +166,6 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
         this.hideScenarioKeyword = hideScenarioKeyword;
         this.hideStepTime = hideStepTime;
         this.hideTags = hideTags;
-        cukedoctor = new CukedoctorMain();
     }
 
     @Override
@@ -153,60 +205,133 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
         logger.println("Hide scenario keyword: " + Boolean.toString(hideScenarioKeyword));
         logger.println("Hide step time: " + Boolean.toString(hideStepTime));
         logger.println("Hide tags: " + Boolean.toString(hideTags));
+        logger.println("Copy json files: " + Boolean.toString(copyJsonFiles));
+        logger.println("Render on agent: " + Boolean.toString(renderOnAgent));
+        logger.println("Render in background: " + Boolean.toString(renderInBackground));
+        logger.println("Render on demand: " + Boolean.toString(renderOnDemand));
+        logger.println("Html timeout (minutes): " + getHtmlTimeout());
+        logger.println("Pdf timeout (minutes): " + getPdfTimeout());
+        logger.println("Json includes: " + getJsonIncludes());
+        logger.println("Excludes: " + getExcludes());
+        logger.println("Customization files: " + getCustomizationFiles());
         logger.println("");
 
-        workspaceJsonSourceDir.copyRecursiveTo("**/*.json", workspaceDocsDir);
-        workspace.copyRecursiveTo("**/cukedoctor-intro.adoc,**/cukedoctor.properties,**/cukedoctor.css,**/cukedoctor-pdf.yml", workspaceDocsDir);
-
+        //multi page documentation is rendered page by page at once, it is never rendered on demand
+        final boolean onDemand = renderOnDemand && !format.equals(FormatType.MULTI_PAGE);
+        final boolean agentRendering = renderOnAgent && workspace.isRemote() && !onDemand;
+        //features are parsed where the json files are (most of the time on slave) so only the parsed model goes through the channel
+        //embeddings are extracted in the workspace temporary directory and then copied to the documentation attachments
+        final FilePath nodeAttachmentsDir = agentRendering ? null : getTempDir(workspace, "attachments");
+        final PublishMetrics metrics = new PublishMetrics();
+        ParsedFeatures parsedFeatures;
+        try {
+            long start = System.currentTimeMillis();
+            parsedFeatures = workspaceJsonSourceDir.act(new ParseFeaturesCallable(!agentRendering, nodeAttachmentsDir != null ? nodeAttachmentsDir.getRemote() : null,
+                    workspace.getRemote(), getJsonIncludes(), getExcludes(), getCustomizationFiles()));
+            if (parsedFeatures.isParsed()) {
+                metrics.record("parse features", System.currentTimeMillis() - start, parsedFeatures.getJsonBytes(), parsedFeatures.getFeatureCount());
+            } else {
+                metrics.record("discover json files", System.currentTimeMillis() - start, parsedFeatures.getJsonBytes(), parsedFeatures.getInputs().getJsonFiles().size());
+            }
+            if (nodeAttachmentsDir != null && nodeAttachmentsDir.exists()) {
+                start = System.currentTimeMillis();
+                int copied = nodeAttachmentsDir.copyRecursiveTo(workspaceDocsDir.child(FeatureAttachment.ATTACHMENTS_DIR));
+                metrics.record("copy attachments", System.currentTimeMillis() - start, PublishMetrics.sizeOf(new File(docsDirectory, FeatureAttachment.ATTACHMENTS_DIR)), copied);
+            }
+        } finally {
+            if (nodeAttachmentsDir != null) {
+                nodeAttachmentsDir.deleteRecursive();
+            }
+        }
+        List<Feature> features = parsedFeatures.getFeatures();
+        final InputDiscovery inputs = parsedFeatures.getInputs();
+        logger.println(String.format("Found %d cucumber json file(s) and %d customization file(s), skipped %d json file(s) which are not cucumber reports.",
+                inputs.getJsonFiles().size(), inputs.getCustomizationFiles().size(), inputs.getSkippedJsonFiles()));
+        //only discovered files are copied, naming them avoids walking the workspace again
+        long start = System.currentTimeMillis();
+        if (copyJsonFiles && !inputs.getJsonFiles().isEmpty()) {
+            int copied = workspaceJsonSourceDir.copyRecursiveTo(InputDiscovery.scanner(inputs.getJsonFiles()), workspaceDocsDir, "cucumber json files");
+            metrics.record("copy json files", System.currentTimeMillis() - start, parsedFeatures.getJsonBytes(), copied);
+            start = System.currentTimeMillis();
+        }
+        if (!inputs.getCustomizationFiles().isEmpty()) {
+            int copied = workspace.copyRecursiveTo(InputDiscovery.scanner(inputs.getCustomizationFiles()), workspaceDocsDir, "customization files");
+            metrics.record("copy customization files", System.currentTimeMillis() - start, PublishMetrics.UNKNOWN, copied);
+        }
 
-        List<Feature> features = FeatureParser.findAndParse(workspaceDocsDir.getRemote());
-        if (!features.isEmpty()) {
+        //json files rendered on agent are only parsed there, features are counted by the rendering
+        if (parsedFeatures.getFeatureCount() > 0 || (!parsedFeatures.isParsed() && !inputs.getJsonFiles().isEmpty())) {
             if (!hasText(title)) {
                 title = "Living Documentation";
             }
 
-            logger.println("Found " + features.size() + " feature(s)...");
-
-            final DocumentAttributes documentAttributes = GlobalConfig.getInstance().getDocumentAttributes().
-                    backend(format.getFormat()).
-                    toc(toc.getToc()).
-                    numbered(numbered).
-                    sectAnchors(sectAnchors).
-                    docTitle(title);
-
-            final CukedoctorConfig cukedoctorConfig = new CukedoctorConfig()
-                    .setIntroChapterDir(workspaceDocsDir.getRemote())
-                    .setIntroChapterRelativePath(workspaceDocsDir.getRemote())
-                    .setHideFeaturesSection(hideFeaturesSection)
-                    .setHideSummarySection(hideSummary)
-                    .setHideScenarioKeyword(hideScenarioKeyword)
-                    .setHideStepTime(hideStepTime)
-                    .setHideTags(hideTags)
-                    .setCustomizationDir(workspaceDocsDir.getRemote());
-
-            String documentationLink = "";
-            try {
-                final String outputPath = docsDirectory.getAbsolutePath() + "/documentation.adoc";
-                final ExecutorService pool = Executors.newFixedThreadPool(2);
-                documentationLink = "../" + build.getNumber() + "/" + CukedoctorBaseAction.BASE_URL + "/docs";
-                if ("all".equals(format.getFormat())) { //when format is 'all' send user to the list of documentation published by the job
-                    pool.execute(runAll(features, documentAttributes, cukedoctorConfig, outputPath));
-                } else {
-                    pool.execute(run(features, documentAttributes, cukedoctorConfig, outputPath));
+            if (parsedFeatures.isParsed()) {
+                logger.println("Found " + parsedFeatures.getFeatureCount() + " feature(s)...");
+            }
+
+            final DocumentationGenerator generator = createGenerator();
+            final String documentationLink = "../" + build.getNumber() + "/" + CukedoctorBaseAction.BASE_URL
+                    + (generator.isMultiPage() ? "/" + DocumentationGenerator.PAGES_DIR + "/" + DocumentationGenerator.PAGES_INDEX : "/docs");
+            final String fingerprint = DocumentationFingerprint.compute(parsedFeatures.getJsonDigest(), docsDirectory, generator.getOptions());
+            final Run<?, ?> buildToReuse = findBuildWithSameDocumentation(build, fingerprint);
+            if (buildToReuse != null) {
+                logger.println("Documentation inputs did not change since build #" + buildToReuse.getNumber() + ", reusing its documentation.");
+                start = System.currentTimeMillis();
+                int copied = new FilePath(new File(buildToReuse.getRootDir(), CukedoctorBaseAction.BASE_URL)).copyRecursiveTo(RENDERED_DOCS, workspaceDocsDir);
+                metrics.record("reuse documentation", System.currentTimeMillis() - start, PublishMetrics.UNKNOWN, copied);
+                compressDocumentation(docsDirectory, listener, metrics);
+                deduplicateDocumentation(build.getParent(), docsDirectory, listener, metrics);
+                addBuildAction(build, fingerprint, buildToReuse.getNumber(), metrics, false);
+                reportMetrics(metrics, logger);
+                listener.hyperlink(documentationLink, "Documentation generated successfully!");
+                logger.println("");
+                build.setResult(result);
+                return;
+            }
+
+            if (onDemand) {
+                result = generateAdoc(generator, features, parsedFeatures.getAttachments(), docsDirectory, listener, metrics);
+                if (result.equals(Result.SUCCESS)) {
+                    deduplicateDocumentation(build.getParent(), docsDirectory, listener, metrics);
+                    addBuildAction(build, fingerprint, null, metrics, true);
                 }
-                pool.shutdown();
-                if (format.equals(FormatType.HTML)) {
-                    pool.awaitTermination(5, TimeUnit.MINUTES);
-                } else {
-                    pool.awaitTermination(15, TimeUnit.MINUTES);
+                reportMetrics(metrics, logger);
+                if (result.equals(Result.SUCCESS)) {
+                    listener.hyperlink(documentationLink, "Documentation generated successfully, it is rendered when first viewed.");
+                    logger.println("");
                 }
-            } catch (final InterruptedException e) {
-                Thread.interrupted();
-                listener.error("Your documentation is taking too long to be generated. Halting the generation now to not throttle Jenkins.");
-                result = Result.FAILURE;
+                build.setResult(result);
+                return;
+            }
+            if (renderInBackground && !agentRendering) {
+                renderInBackground(build, generator, features, parsedFeatures.getAttachments(), docsDirectory, fingerprint, metrics, listener);
+                listener.hyperlink("../" + build.getNumber() + "/" + CukedoctorBaseAction.BASE_URL + "/", "Documentation is rendered in background, it will be available here when ready.");
+                logger.println("");
+                build.setResult(result);
+                return;
+            }
+            if (renderInBackground) {
+                logger.println("Documentation rendered on agent needs the workspace, it is not rendered in background.");
+            }
+            if (agentRendering) {
+                final int renderedFeatures = renderOnAgent(generator, workspace, workspaceJsonSourceDir, inputs, workspaceDocsDir, listener, metrics);
+                if (renderedFeatures == 0) {
+                    logger.println(String.format("No features Found in %s. %sLiving documentation will not be generated.", workspaceJsonSourceDir.getRemote(), "\n"));
+                    build.setResult(result);
+                    return;
+                }
+                result = renderedFeatures > 0 ? Result.SUCCESS : Result.FAILURE;
+            } else {
+                result = renderOnMaster(generator, features, parsedFeatures.getAttachments(), build.getParent().getFullName(), docsDirectory, listener, metrics,
+                        new ArrayList<>());
             }
             if (result.equals(Result.SUCCESS)) {
-                build.addAction(new CukedoctorBuildAction(build, new CukedoctorBuild(format, build.number, build.getTime())));
+                compressDocumentation(docsDirectory, listener, metrics);
+                deduplicateDocumentation(build.getParent(), docsDirectory, listener, metrics);
+                addBuildAction(build, fingerprint, null, metrics, false);
+            }
+            reportMetrics(metrics, logger);
+            if (result.equals(Result.SUCCESS)) {
                 listener.hyperlink(documentationLink, "Documentation generated successfully!");
                 logger.println("");
             }
@@ -217,6 +342,363 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
         build.setResult(result);
     }
 
+    private DocumentationGenerator createGenerator() {
+        return new DocumentationGenerator(format, toc, title, numbered, sectAnchors, hideFeaturesSection, hideSummary, hideScenarioKeyword, hideStepTime, hideTags);
+    }
+
+    /**
+     * Only generates the AsciiDoc of each format, formats are rendered the first time they are viewed, see {@link RenderedDocsCache}.
+     */
+    private Result generateAdoc(DocumentationGenerator generator, List<Feature> features, List<FeatureAttachment> attachments, File docsDirectory,
+                                TaskListener listener, PublishMetrics metrics) {
+        final CukedoctorConfig cukedoctorConfig = generator.createCukedoctorConfig(docsDirectory.getAbsolutePath());
+        try {
+            for (String backend : generator.getBackends()) {
+                final long start = System.currentTimeMillis();
+                final File adocFile = DocumentationGenerator.generateAdoc(features, generator.createDocumentAttributes(backend), cukedoctorConfig,
+                        generator.getAdocPath(docsDirectory, backend), attachments);
+                metrics.record(RenderControl.generating(backend), System.currentTimeMillis() - start, adocFile.length(), PublishMetrics.UNKNOWN);
+            }
+        } catch (RuntimeException e) {
+            listener.error("Could not generate documentation: " + e.getMessage());
+            return Result.FAILURE;
+        }
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Attaches the documentation to the build in a rendering state and renders it on a background thread so the build
+     * step returns right away. Features, attachments and customization files are already on master so the workspace is
+     * not needed anymore. The rendering output goes to {@link CukedoctorBuildAction#RENDERING_LOG}.
+     */
+    private void renderInBackground(final Run<?, ?> build, final DocumentationGenerator generator, final List<Feature> features, final List<FeatureAttachment> attachments,
+                                    final File docsDirectory, final String fingerprint, final PublishMetrics metrics, TaskListener listener) {
+        final CukedoctorBuild cukedoctorBuild = new CukedoctorBuild(format, build.number, build.getTime());
+        final CukedoctorBuildAction action = new CukedoctorBuildAction(build, cukedoctorBuild, fingerprint, null);
+        final List<RenderControl> controls = new CopyOnWriteArrayList<>();
+        action.startRendering(controls);
+        build.addAction(action);
+        final String buildId = build.getExternalizableId();
+        final Job<?, ?> job = build.getParent();
+        final String jobName = job.getFullName();
+        try {
+            RenderingScheduler.get().runInBackground(buildId, () -> {
+                Result result = Result.FAILURE;
+                try (StreamTaskListener renderListener = new StreamTaskListener(new File(docsDirectory, CukedoctorBuildAction.RENDERING_LOG), StandardCharsets.UTF_8)) {
+                    try {
+                        result = renderOnMaster(generator, features, attachments, jobName, docsDirectory, renderListener, metrics, controls);
+                        if (result.equals(Result.SUCCESS)) {
+                            compressDocumentation(docsDirectory, renderListener, metrics);
+                            deduplicateDocumentation(job, docsDirectory, renderListener, metrics);
+                        }
+                        reportMetrics(metrics, renderListener.getLogger());
+                    } catch (InterruptedException e) {
+                        renderListener.error("Documentation rendering was interrupted.");
+                        result = Result.ABORTED;
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Could not write documentation rendering log of " + buildId, e);
+                }
+                finishBackgroundRendering(buildId, action, result.equals(Result.SUCCESS), metrics);
+            });
+        } catch (RejectedExecutionException e) {
+            listener.error("Could not render documentation in background: " + e.getMessage());
+            action.finishRendering(false, metrics);
+        }
+    }
+
+    /**
+     * Updates and saves the build action. The build may have been reloaded from disk while its documentation was rendered,
+     * in which case the action of the reloaded build is updated too.
+     */
+    private static void finishBackgroundRendering(String buildId, CukedoctorBuildAction action, boolean rendered, PublishMetrics metrics) {
+        final Run<?, ?> build;
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            build = Run.fromExternalizableId(buildId);
+        }
+        if (build == null) {
+            action.finishRendering(rendered, metrics);
+            return; //deleted meanwhile
+        }
+        if (rendered) {
+            DocumentationIndex.of(build.getParent()).add(action.getCukedoctorBuild());
+        }
+        CukedoctorBuildAction current = build.getAction(CukedoctorBuildAction.class);
+        if (current != null && current != action) {
+            current.finishRendering(rendered, metrics);
+        }
+        action.finishRendering(rendered, metrics);
+        try {
+            build.save();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save documentation state of " + buildId, e);
+        }
+    }
+
+    /**
+     * Renders the documentation through the plugin wide {@link RenderingScheduler}
+     *
+     * @param controls filled with the control of each submitted render, see {@link RenderControl}
+     */
+    private Result renderOnMaster(DocumentationGenerator generator, List<Feature> features, List<FeatureAttachment> attachments, String jobName, File docsDirectory, TaskListener listener,
+                                  PublishMetrics metrics, List<RenderControl> controls) throws InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        final RenderingScheduler scheduler = RenderingScheduler.get();
+        final CukedoctorConfig cukedoctorConfig = generator.createCukedoctorConfig(docsDirectory.getAbsolutePath());
+        final List<RenderingScheduler.RenderTask<Void>> renders = new ArrayList<>();
+        try {
+            if (generator.isMultiPage()) {
+                RenderControl control = new RenderControl();
+                renders.add(scheduler.submit(jobName, "html5", renderPages(generator, features, cukedoctorConfig, docsDirectory, attachments, control)));
+                controls.add(control);
+            } else {
+                for (String backend : generator.getBackends()) {
+                    RenderControl control = new RenderControl();
+                    renders.add(scheduler.submit(jobName, backend, render(features, generator.createDocumentAttributes(backend), cukedoctorConfig, generator.getAdocPath(docsDirectory, backend), attachments, control)));
+                    controls.add(control);
+                }
+            }
+            for (RenderingScheduler.RenderTask<Void> render : renders) {
+                logger.println(render.getQueueSummary());
+            }
+            for (int i = 0; i < renders.size(); i++) {
+                final RenderingScheduler.RenderTask<Void> render = renders.get(i);
+                final int timeout = getTimeout(render.getDescription());
+                try {
+                    //time waiting in the render queue is not part of the timeout
+                    render.await(timeout, TimeUnit.MINUTES);
+                } catch (final TimeoutException e) {
+                    listener.error(String.format("%s rendering timed out after %d minute(s) while %s. Halting the generation now to not throttle Jenkins, the timeout can be increased in the step advanced options.",
+                            render.getDescription(), timeout, controls.get(i).getPhase()));
+                    abort(renders, controls);
+                    return Result.FAILURE;
+                }
+                logger.println(render.getTimingSummary());
+                recordRenderPhases(metrics, generator, render.getDescription(), controls.get(i), docsDirectory);
+            }
+        } catch (final RejectedExecutionException e) {
+            abort(renders, controls);
+            listener.error(e.getMessage() + " Try again later or increase the queue capacity in Jenkins global configuration.");
+            return Result.FAILURE;
+        } catch (final InterruptedException e) {
+            abort(renders, controls);
+            throw e;
+        } catch (final ExecutionException e) {
+            abort(renders, controls);
+            listener.error(e.getCause().getMessage());
+            return Result.FAILURE;
+        }
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Cancels renders which did not finish: queued ones never start and running ones are interrupted and their
+     * Asciidoctor instances shut down.
+     */
+    private static void abort(List<RenderingScheduler.RenderTask<Void>> renders, List<RenderControl> controls) {
+        for (int i = 0; i < renders.size(); i++) {
+            if (!renders.get(i).isDone()) {
+                renders.get(i).cancel(true);
+                controls.get(i).abort();
+            }
+        }
+    }
+
+    /**
+     * Records the duration of each phase of a finished render along with the size of what it generated.
+     */
+    private static void recordRenderPhases(PublishMetrics metrics, DocumentationGenerator generator, String backend, RenderControl control, File docsDirectory) {
+        for (Map.Entry<String, Long> phase : control.getDurations().entrySet()) {
+            String name = phase.getKey();
+            long bytes = PublishMetrics.UNKNOWN;
+            long count = PublishMetrics.UNKNOWN;
+            if (name.equals(RenderControl.QUEUED)) {
+                name = backend + " " + name;
+            } else if (name.equals(RenderControl.PAGES)) {
+                File pagesDir = new File(docsDirectory, DocumentationGenerator.PAGES_DIR);
+                bytes = PublishMetrics.sizeOf(pagesDir);
+                File[] pages = pagesDir.listFiles((dir, fileName) -> fileName.endsWith(".html"));
+                count = pages != null ? pages.length : PublishMetrics.UNKNOWN;
+            } else if (name.equals(RenderControl.generating(backend))) {
+                bytes = new File(generator.getAdocPath(docsDirectory, backend)).length();
+            } else if (name.equals(RenderControl.rendering(backend))) {
+                bytes = new File(docsDirectory, "documentation" + (DocumentationGenerator.isPdf(backend) ? ".pdf" : ".html")).length();
+            }
+            metrics.record(name, phase.getValue(), bytes, count);
+        }
+    }
+
+    /**
+     * Prints the phases summary in the build log and publishes them through the metrics plugin, when installed.
+     */
+    private static void reportMetrics(PublishMetrics metrics, PrintStream logger) {
+        logger.println(metrics.getSummary());
+        MetricsReporter.report(metrics);
+    }
+
+    /**
+     * @return timeout, in minutes, of given backend rendering
+     */
+    private int getTimeout(String backend) {
+        return DocumentationGenerator.isPdf(backend) ? getPdfTimeout() : getHtmlTimeout();
+    }
+
+    /**
+     * Parses the features and renders the documentation on the node which ran the build, in its workspace temporary directory,
+     * and copies only the rendered documentation to master.
+     *
+     * @return number of features found, <code>-1</code> if the documentation could not be rendered
+     */
+    private int renderOnAgent(DocumentationGenerator generator, FilePath workspace, FilePath jsonSourceDir, InputDiscovery inputs, FilePath docsDir, TaskListener listener,
+                                 PublishMetrics metrics) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        final FilePath agentDocsDir = getTempDir(workspace, null);
+        try {
+            agentDocsDir.deleteRecursive();
+            agentDocsDir.mkdirs();
+            if (!inputs.getCustomizationFiles().isEmpty()) {
+                workspace.copyRecursiveTo(InputDiscovery.scanner(inputs.getCustomizationFiles()), agentDocsDir, "customization files");
+            }
+            final long start = System.currentTimeMillis();
+            int timeout = 0;
+            for (String backend : generator.getBackends()) {
+                timeout = Math.max(timeout, getTimeout(backend));
+            }
+            final Future<Integer> render = agentDocsDir.actAsync(new RenderDocumentationCallable(generator, jsonSourceDir.getRemote(), inputs.getJsonFiles()));
+            final int features;
+            try {
+                features = render.get(timeout, TimeUnit.MINUTES);
+            } catch (final TimeoutException e) {
+                render.cancel(true); //interrupts the rendering thread on the node, which aborts the rendering
+                listener.error(String.format("Rendering on the build node timed out after %d minute(s). Halting the generation now, the timeout can be increased in the step advanced options.", timeout));
+                return -1;
+            } catch (final InterruptedException e) {
+                render.cancel(true);
+                throw e;
+            } catch (final ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            if (features == 0) {
+                return 0;
+            }
+            final long renderTime = System.currentTimeMillis() - start;
+            logger.println("Found " + features + " feature(s)...");
+            logger.println(String.format("Documentation rendered on the build node in %d ms.", renderTime));
+            metrics.record("render on build node", renderTime, PublishMetrics.UNKNOWN, features);
+            final long copyStart = System.currentTimeMillis();
+            final int copied = agentDocsDir.copyRecursiveTo(RENDERED_DOCS, docsDir);
+            metrics.record("copy rendered documentation", System.currentTimeMillis() - copyStart, PublishMetrics.UNKNOWN, copied);
+            return features;
+        } catch (final IOException e) {
+            listener.error(e.getMessage());
+            return -1;
+        } finally {
+            agentDocsDir.deleteRecursive();
+        }
+    }
+
+    /**
+     * Attaches the documentation to the build and adds it to the job {@link DocumentationIndex}.
+     */
+    private void addBuildAction(Run<?, ?> build, String fingerprint, Integer reusedFrom, PublishMetrics metrics, boolean renderOnDemand) {
+        CukedoctorBuild cukedoctorBuild = new CukedoctorBuild(format, build.number, build.getTime());
+        CukedoctorBuildAction action = new CukedoctorBuildAction(build, cukedoctorBuild, fingerprint, reusedFrom);
+        action.setPublishMetrics(metrics);
+        action.setRenderOnDemand(renderOnDemand);
+        if (renderOnDemand) {
+            action.setRenderTimeouts(getHtmlTimeout(), getPdfTimeout());
+        }
+        build.addAction(action);
+        DocumentationIndex.of(build.getParent()).add(cukedoctorBuild);
+    }
+
+    /**
+     * Writes the gzip variant of the default themed html documentation served by {@link DocsRenderer}.
+     * Failing to do so is not fatal, documentation is then themed and served uncompressed.
+     */
+    private void compressDocumentation(File docsDirectory, TaskListener listener, PublishMetrics metrics) {
+        if (format.equals(FormatType.PDF)) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final List<File> htmlFiles = new ArrayList<>();
+        if (format.equals(FormatType.MULTI_PAGE)) {
+            File[] pages = new File(docsDirectory, DocumentationGenerator.PAGES_DIR).listFiles((dir, name) -> name.endsWith(".html"));
+            if (pages != null) {
+                htmlFiles.addAll(Arrays.asList(pages));
+            }
+        } else {
+            htmlFiles.add(new File(docsDirectory, "documentation.html"));
+        }
+        long compressedBytes = 0;
+        try {
+            for (File htmlFile : htmlFiles) {
+                compressedBytes += DocsRenderer.compress(htmlFile, DocsRenderer.DEFAULT_THEME);
+            }
+        } catch (IOException e) {
+            listener.getLogger().println("Could not compress documentation: " + e.getMessage());
+        }
+        metrics.record("compress documentation", System.currentTimeMillis() - start, compressedBytes, htmlFiles.size());
+    }
+
+    /**
+     * Links the published documentation files to the job {@link DocumentationStore} when enabled in the global configuration.
+     * Failing to do so is not fatal, files are then kept as copies.
+     */
+    private static void deduplicateDocumentation(Job<?, ?> job, File docsDirectory, TaskListener listener, PublishMetrics metrics) {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        if (configuration == null || !configuration.isDeduplicateDocumentation()) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            long[] linked = DocumentationStore.of(job).deduplicate(docsDirectory);
+            metrics.record("deduplicate documentation", System.currentTimeMillis() - start, linked[1], linked[0]);
+        } catch (IOException e) {
+            listener.getLogger().println("Could not deduplicate documentation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a previous build which published documentation with given fingerprint and still has it on disk, <code>null</code> otherwise.
+     * Builds still rendering in background or whose rendering failed may have partial documentation, they are skipped.
+     */
+    private Run<?, ?> findBuildWithSameDocumentation(Run<?, ?> build, String fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        Run<?, ?> previousBuild = build.getPreviousBuild();
+        for (int i = 0; previousBuild != null && i < MAX_BUILDS_TO_REUSE; i++, previousBuild = previousBuild.getPreviousBuild()) {
+            CukedoctorBuildAction action = previousBuild.getAction(CukedoctorBuildAction.class);
+            if (action != null && fingerprint.equals(action.getFingerprint()) && !action.isRendering() && !action.isRenderingFailed()
+                    && hasRenderedDocumentation(previousBuild)) {
+                return previousBuild;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasRenderedDocumentation(Run<?, ?> build) {
+        File docsDir = new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL);
+        if (format.equals(FormatType.HTML)) {
+            return new File(docsDir, "documentation.html").exists();
+        } else if (format.equals(FormatType.PDF)) {
+            return new File(docsDir, "documentation.pdf").exists();
+        } else if (format.equals(FormatType.MULTI_PAGE)) {
+            return new File(docsDir, DocumentationGenerator.PAGES_DIR + "/" + DocumentationGenerator.PAGES_INDEX).exists();
+        }
+        return new File(docsDir, "documentation.html").exists() && new File(docsDir, "documentation.pdf").exists();
+    }
+
+    /**
+     * @param suffix optional suffix of the directory name
+     * @return a directory, on the node which ran the build, for temporary documentation files
+     */
+    private static FilePath getTempDir(FilePath workspace, String suffix) {
+        final String name = CukedoctorBaseAction.BASE_URL + (suffix != null ? "-" + suffix : "");
+        final FilePath workspaceTempDir = WorkspaceList.tempDir(workspace);
+        return workspaceTempDir != null ? workspaceTempDir.child(name) : workspace.child("." + name);
+    }
 
     /**
      * mainly for findbugs be happy
@@ -232,48 +714,58 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
         }
     }
 
-    /**
-     * generates html and PDF documentation 'inlined' otherwise if we execute them in separated threads
-     * only the last thread content is rendered (cause they work on the same adoc file)
-     *
-     * @return
-     */
-    private Runnable runAll(final List<Feature> features, final DocumentAttributes attrs, final CukedoctorConfig cukedoctorConfig, final String outputPath) {
+    private Callable<Void> render(final List<Feature> features, final DocumentAttributes attrs, final CukedoctorConfig cukedoctorConfig, final String outputPath,
+                                  final List<FeatureAttachment> attachments, final RenderControl control) {
         return () -> {
             try {
-                attrs.backend("html5");
-                generateDocumentation(features, attrs, cukedoctorConfig, outputPath);
-                attrs.backend("pdf");
-                generateDocumentation(features, attrs, cukedoctorConfig, outputPath);
+                generateDocumentation(features, attrs, cukedoctorConfig, outputPath, attachments, control);
+                return null;
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
+                if (control.isAborted()) {
+                    throw new InterruptedException("Documentation rendering was aborted while " + control.getPhase());
+                }
                 e.printStackTrace();
                 final String errorMessage = String.format("Unexpected error on documentation generation, message %s, cause %s", e.getMessage(), e.getCause());
                 throw new RuntimeException(errorMessage);
+            } finally {
+                control.finishPhase();
             }
         };
 
     }
 
-    private Runnable run(final List<Feature> features, final DocumentAttributes attrs, final CukedoctorConfig cukedoctorConfig, final String outputPath) {
+    private Callable<Void> renderPages(final DocumentationGenerator generator, final List<Feature> features, final CukedoctorConfig cukedoctorConfig,
+                                       final File docsDirectory, final List<FeatureAttachment> attachments, final RenderControl control) {
         return () -> {
             try {
-                generateDocumentation(features, attrs, cukedoctorConfig, outputPath);
-            } catch (Exception e) {
-                e.printStackTrace();
-                final String errorMessage = String.format("Unexpected error on documentation generation, message %s, cause %s", e.getMessage(), e.getCause());
-                throw new RuntimeException(errorMessage);
+                generator.renderPages(features, cukedoctorConfig, docsDirectory, attachments, true, control);
+                return null;
+            } finally {
+                control.finishPhase();
             }
         };
+    }
 
+    /**
+     * Generates the adoc file at <code>outputPath</code> and renders it with the backend of given attributes using a pooled
+     * Asciidoctor instance. No global state is changed so renders of different builds can run at the same time.
+     */
+    protected void generateDocumentation(List<Feature> features, DocumentAttributes attrs, CukedoctorConfig cukedoctorConfig, String outputPath,
+                                         List<FeatureAttachment> attachments) throws InterruptedException {
+        generateDocumentation(features, attrs, cukedoctorConfig, outputPath, attachments, new RenderControl());
     }
 
-    protected synchronized void generateDocumentation(List<Feature> features, DocumentAttributes attrs, CukedoctorConfig cukedoctorConfig, String outputPath) {
-        if (attrs.getBackend().equalsIgnoreCase("pdf")) {
-            System.setProperty("cukedoctor.disable-extensions", "true");
-        } else {
-            System.clearProperty("cukedoctor.disable-extensions");
-        }
-        cukedoctor.execute(features, attrs, cukedoctorConfig, outputPath);
+    /**
+     * @param control lets the thread waiting for the rendering abort it, see {@link RenderControl}
+     */
+    void generateDocumentation(List<Feature> features, DocumentAttributes attrs, CukedoctorConfig cukedoctorConfig, String outputPath,
+                               List<FeatureAttachment> attachments, RenderControl control) throws InterruptedException {
+        final String backend = attrs.getBackend();
+        control.enter(RenderControl.generating(backend));
+        final File adocFile = DocumentationGenerator.generateAdoc(features, attrs, cukedoctorConfig, outputPath, attachments);
+        DocumentationGenerator.renderPooled(adocFile, backend, DocumentationGenerator.getRenderedFile(adocFile, backend), control);
     }
 
     @Override
@@ -366,6 +858,42 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
         return hideTags;
     }
 
+    public boolean isCopyJsonFiles() {
+        return copyJsonFiles;
+    }
+
+    public boolean isRenderOnAgent() {
+        return renderOnAgent;
+    }
+
+    public boolean isRenderInBackground() {
+        return renderInBackground;
+    }
+
+    public boolean isRenderOnDemand() {
+        return renderOnDemand;
+    }
+
+    public int getHtmlTimeout() {
+        return htmlTimeout != null && htmlTimeout > 0 ? htmlTimeout : DEFAULT_HTML_TIMEOUT;
+    }
+
+    public int getPdfTimeout() {
+        return pdfTimeout != null && pdfTimeout > 0 ? pdfTimeout : DEFAULT_PDF_TIMEOUT;
+    }
+
+    public String getJsonIncludes() {
+        return hasText(jsonIncludes) ? jsonIncludes : InputDiscovery.DEFAULT_JSON_INCLUDES;
+    }
+
+    public String getExcludes() {
+        return excludes != null ? excludes : InputDiscovery.DEFAULT_EXCLUDES;
+    }
+
+    public String getCustomizationFiles() {
+        return hasText(customizationFiles) ? customizationFiles : DocumentationFingerprint.CUSTOMIZATION_FILES;
+    }
+
 
     @DataBoundSetter
     public void setFeaturesDir(String featuresDir) {
@@ -421,5 +949,72 @@ public class CukedoctorPublisher extends Recorder implements SimpleBuildStep {
     public void setHideTags(boolean hideTags) {
         this.hideTags = hideTags;
     }
-}
 
+    @DataBoundSetter
+    public void setCopyJsonFiles(boolean copyJsonFiles) {
+        this.copyJsonFiles = copyJsonFiles;
+    }
+
+    @DataBoundSetter
+    public void setRenderOnAgent(boolean renderOnAgent) {
+        this.renderOnAgent = renderOnAgent;
+    }
+
+    /**
+     * @param renderInBackground whether the step returns once inputs are collected, documentation being rendered on master in background
+     */
+    @DataBoundSetter
+    public void setRenderInBackground(boolean renderInBackground) {
+        this.renderInBackground = renderInBackground;
+    }
+
+    /**
+     * @param renderOnDemand whether only the AsciiDoc is generated, each format being rendered the first time it is viewed
+     */
+    @DataBoundSetter
+    public void setRenderOnDemand(boolean renderOnDemand) {
+        this.renderOnDemand = renderOnDemand;
+    }
+
+    /**
+     * @param htmlTimeout html rendering timeout in minutes, values lower than 1 restore the default
+     */
+    @DataBoundSetter
+    public void setHtmlTimeout(int htmlTimeout) {
+        this.htmlTimeout = htmlTimeout > 0 ? htmlTimeout : null;
+    }
+
+    /**
+     * @param pdfTimeout pdf rendering timeout in minutes, values lower than 1 restore the default
+     */
+    @DataBoundSetter
+    public void setPdfTimeout(int pdfTimeout) {
+        this.pdfTimeout = pdfTimeout > 0 ? pdfTimeout : null;
+    }
+
+    /**
+     * @param jsonIncludes comma separated patterns of cucumber json files, relative to features dir. Blank restores the default
+     */
+    @DataBoundSetter
+    public void setJsonIncludes(String jsonIncludes) {
+        this.jsonIncludes = Util.fixEmptyAndTrim(jsonIncludes);
+    }
+
+    /**
+     * @param excludes comma separated patterns of files and directories, relative to the workspace, skipped when searching
+     *                 cucumber json and customization files. Blank excludes nothing
+     */
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = excludes != null ? excludes.trim() : null;
+    }
+
+    /**
+     * @param customizationFiles comma separated paths or patterns, relative to the workspace, of cukedoctor customization files
+     *                           (cukedoctor-intro.adoc, cukedoctor.properties...). Blank searches them in the whole workspace
+     */
+    @DataBoundSetter
+    public void setCustomizationFiles(String customizationFiles) {
+        this.customizationFiles = Util.fixEmptyAndTrim(customizationFiles);
+    }
+}
@@ -5,24 +5,48 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
+import org.apache.commons.io.output.TeeOutputStream;
 
 public class DocsRenderer implements Serializable {
 
+    static final String DEFAULT_THEME = "asciidoctor";
+
+    /**
+     * theme names are used in file paths and cache keys, anything else is not found
+     */
+    static final Pattern THEME_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
     private final File docsPath;
     private final String buildName;
+    private final String jobName;
+    private final File adocFile;
+    private final int renderTimeout;
 
     public DocsRenderer(File docsPath, String buildName) {
+        this(docsPath, buildName, null, null, 0);
+    }
+
+    /**
+     * @param jobName       job of the documentation
+     * @param adocFile      AsciiDoc the documentation is rendered from on first view, see {@link RenderedDocsCache},
+     *                      <code>null</code> if it was rendered when published
+     * @param renderTimeout rendering timeout in minutes, from the job configuration
+     */
+    DocsRenderer(File docsPath, String buildName, String jobName, File adocFile, int renderTimeout) {
         this.docsPath = docsPath;
         this.buildName = buildName;
+        this.jobName = jobName;
+        this.adocFile = adocFile;
+        this.renderTimeout = renderTimeout;
     }
 
     /**
@@ -35,49 +59,209 @@ public class DocsRenderer implements Serializable {
         final String fileName = docsPath.getName();
         final boolean isAllDocsPage = fileName.endsWith("all.html");
         final boolean isHtmlDoc = fileName.endsWith(".html") && !isAllDocsPage;
+        final String themeName = request.hasParameter("theme") ? request.getParameter("theme") : DEFAULT_THEME;
+        if (isHtmlDoc && (themeName == null || !THEME_NAME.matcher(themeName).matches())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (adocFile != null && !renderOnDemand(response, fileName.endsWith(".pdf") ? "pdf" : "html5")) {
+            return;
+        }
         if (isHtmlDoc) {
-            String themePath = getThemePath(request);
-            renderHtmlDoc(request, response, fileName, themePath);
+            renderHtmlDoc(request, response, fileName, themeName);
         } else {  //render all.html or pdf file
             if (isAllDocsPage) {
                 createAllDocsPage(docsPath);
             }
+            DocsResponse docsResponse = DocsResponse.of(docsPath);
+            if (docsResponse.notModified(request, response)) {
+                return;
+            }
             try (InputStream is = new FileInputStream(docsPath)) {
-                response.addHeader("Content-Type", fileName.endsWith("html") ? "text/html" : "application/pdf");
+                response.setContentType(fileName.endsWith("html") ? "text/html" : "application/pdf");
                 response.addHeader("Content-Disposition", "inline; filename=" + fileName);
-                response.serveFile(request, is, 0l, 0l, -1l, fileName);
+                docsResponse.serve(request, response, is, docsPath.length());
             } catch (Exception e) {
                 Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Could not get living documentation for build " + buildName, e);
             }
         }
     }
 
-    private String getThemePath(StaplerRequest request) {
-        String themeName = "asciidoctor.css";
-        if (request.hasParameter("theme")) {
-            themeName = request.getParameter("theme") + ".css";
+    /**
+     * @return <code>false</code> if the documentation could not be rendered, the error was then sent
+     */
+    private boolean renderOnDemand(StaplerResponse response, String backend) throws IOException {
+        try {
+            RenderedDocsCache.get().render(jobName, adocFile, backend, renderTimeout);
+            return true;
+        } catch (IOException e) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "Could not render living documentation of build " + buildName, e);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
-        String themeBasePath = docsPath.getAbsolutePath();
-        return new StringBuilder(themeBasePath.substring(0, themeBasePath.lastIndexOf("/") + 1))
-                .append("themes/").append(themeName).toString();
+        return false;
     }
 
-    private void renderHtmlDoc(StaplerRequest request, StaplerResponse response, String fileName, String themePath) throws IOException {
-        String themeContent = new String(Files.readAllBytes(Paths.get(themePath)), "UTF-8");
-        String html = new String(Files.readAllBytes(docsPath.toPath()), "UTF-8");
-        Document doc = Jsoup.parse(html, "UTF-8");
-        Elements head = doc.getElementsByTag("head");
-        head.select("style").remove();
-        head.append("<style> " + themeContent + "</style>");
-        try (InputStream is = new ByteArrayInputStream(doc.toString().getBytes("UTF-8"))) {
-            response.addHeader("Content-Type", "text/html");
+    /**
+     * Writes the html documentation themed with given theme as gzip, next to the documentation, so it can be served
+     * without being themed nor compressed on each view.
+     *
+     * @param docsPath html documentation
+     * @return size of the compressed documentation, 0 if there is nothing to compress
+     */
+    static long compress(File docsPath, String themeName) throws IOException {
+        final File themeFile = getThemeFile(docsPath, themeName);
+        if (!docsPath.isFile() || !themeFile.isFile()) {
+            return 0;
+        }
+        final File compressed = getCompressedFile(docsPath, themeName);
+        final File tempFile = new File(compressed.getPath() + ".tmp");
+        try {
+            try (InputStream is = new FileInputStream(docsPath); OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile))) {
+                ThemeInjector.inject(is, themeFile, out);
+            }
+            Files.move(tempFile.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return compressed.length();
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Themes are in the documentation directory, pages of multi page documentation use the themes of their parent directory.
+     */
+    private static File getThemeFile(File docsPath, String themeName) {
+        File themeFile = new File(docsPath.getParentFile(), "themes/" + themeName + ".css");
+        if (!themeFile.isFile() && docsPath.getParentFile().getName().equals(DocumentationGenerator.PAGES_DIR)) {
+            themeFile = new File(docsPath.getParentFile().getParentFile(), "themes/" + themeName + ".css");
+        }
+        return themeFile;
+    }
+
+    private static File getCompressedFile(File docsPath, String themeName) {
+        String baseName = docsPath.getName().replaceAll("\\.html$", "");
+        return new File(docsPath.getParentFile(), baseName + "-" + themeName + ".html.gz");
+    }
+
+    private static boolean acceptsGzip(StaplerRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] params = encoding.split(";");
+            if (params[0].trim().equalsIgnoreCase("gzip")) {
+                return params.length == 1 || !params[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private void renderHtmlDoc(StaplerRequest request, StaplerResponse response, String fileName, String themeName) throws IOException {
+        final File themeFile = getThemeFile(docsPath, themeName);
+        if (!themeFile.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        final File compressed = getCompressedFile(docsPath, themeName);
+        if (acceptsGzip(request) && compressed.isFile() && compressed.lastModified() >= Math.max(docsPath.lastModified(), themeFile.lastModified())) {
+            renderCompressedHtmlDoc(request, response, fileName, compressed);
+            return;
+        }
+        final DocsResponse docsResponse = DocsResponse.of(docsPath, themeFile);
+        if (docsResponse.notModified(request, response)) {
+            return;
+        }
+        final ThemedDocsCache cache = ThemedDocsCache.get();
+        final String cacheKey = ThemedDocsCache.key(docsPath, themeFile);
+        final byte[] themedHtml = cache.get(cacheKey);
+        try {
+            response.setContentType("text/html");
+            response.addHeader("Content-Disposition", "inline; filename=" + fileName);
+            if (themedHtml != null) {
+                try (InputStream is = new ByteArrayInputStream(themedHtml)) {
+                    docsResponse.serve(request, response, is, themedHtml.length);
+                }
+                return;
+            }
+            //themed html length is unknown until it is written, so it is streamed as a whole (ranges are ignored)
+            //and only the request filling the cache keeps it in memory
+            final boolean fill = cache.startFill(cacheKey, docsPath.length() + themeFile.length());
+            ByteArrayOutputStream cacheCopy = fill ? new ByteArrayOutputStream() : null;
+            byte[] filled = null; //a response which failed midway does not fill the cache
+            try (InputStream is = new FileInputStream(docsPath); OutputStream out = response.getOutputStream()) {
+                ThemeInjector.inject(is, themeFile, fill ? new TeeOutputStream(out, cacheCopy) : out);
+                if (fill) {
+                    filled = cacheCopy.toByteArray();
+                }
+            } finally {
+                if (fill) {
+                    cache.finishFill(cacheKey, filled);
+                }
+            }
+        } catch (Exception e) {
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Could not get living documentation for build " + buildName, e);
+        }
+    }
+
+    private void renderCompressedHtmlDoc(StaplerRequest request, StaplerResponse response, String fileName, File compressed) throws IOException {
+        final DocsResponse docsResponse = DocsResponse.of(compressed);
+        if (docsResponse.notModified(request, response)) {
+            return;
+        }
+        try (InputStream is = new FileInputStream(compressed)) {
+            response.setContentType("text/html");
+            response.addHeader("Content-Encoding", "gzip");
             response.addHeader("Content-Disposition", "inline; filename=" + fileName);
-            response.serveFile(request, is, 0l, 0l, -1l, fileName);
+            docsResponse.serve(request, response, is, compressed.length());
         } catch (Exception e) {
             Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Could not get living documentation for build " + buildName, e);
         }
     }
 
+    /**
+     * Attachments are also served under the documentation url, relative links of the documentation then resolve whether
+     * its url ends with a slash or not.
+     */
+    public void doAttachments(StaplerRequest request, StaplerResponse response) throws IOException {
+        File docsDir = docsPath.getParentFile();
+        if (docsDir.getName().equals(DocumentationGenerator.PAGES_DIR)) {
+            docsDir = docsDir.getParentFile();
+        }
+        serveAttachment(docsDir, request, response);
+    }
+
+    /**
+     * Serves the attachment named by the rest of the request path, see {@link FeatureAttachment}. Their content never
+     * changes (they are named after it) so they can be cached by browsers.
+     *
+     * @param docsDir documentation directory of the build
+     */
+    static void serveAttachment(File docsDir, StaplerRequest request, StaplerResponse response) throws IOException {
+        final String fileName = request.getRestOfPath().startsWith("/") ? request.getRestOfPath().substring(1) : request.getRestOfPath();
+        final File attachment = new File(docsDir, FeatureAttachment.ATTACHMENTS_DIR + "/" + fileName);
+        if (!FeatureAttachment.FILE_NAME.matcher(fileName).matches() || !attachment.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final DocsResponse docsResponse = DocsResponse.of(attachment);
+        if (docsResponse.notModified(request, response)) {
+            return;
+        }
+        response.setHeader("Cache-Control", "private, max-age=31536000, immutable");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setContentType(FeatureAttachment.contentType(fileName));
+        if (!FeatureAttachment.isInlineImage(fileName) && !fileName.endsWith(".txt")) {
+            response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        }
+        try (InputStream is = new FileInputStream(attachment)) {
+            docsResponse.serve(request, response, is, attachment.length());
+        }
+    }
+
     private void createAllDocsPage(File allDocsPath) {
         if (!allDocsPath.exists()) {
             try (InputStream is = getClass().getResourceAsStream("/" + CukedoctorBaseAction.ALL_DOCUMENTATION)) {
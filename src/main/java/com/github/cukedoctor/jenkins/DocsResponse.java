@@ -0,0 +1,156 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Util;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves documentation with validators (<code>ETag</code>, <code>Last-Modified</code>) so browsers and proxies revalidate
+ * it instead of downloading it again, and with single byte range support so big documents (e.g. pdf) can be streamed and resumed.
+ */
+final class DocsResponse {
+
+    private static final Pattern BYTE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final String etag;
+
+    private final long lastModified;
+
+    private DocsResponse(String etag, long lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param files files the served content is made of, e.g. the documentation and its theme
+     */
+    static DocsResponse of(File... files) {
+        StringBuilder version = new StringBuilder();
+        long lastModified = 0;
+        for (File file : files) {
+            version.append(file.getAbsolutePath()).append('|').append(file.length()).append('|').append(file.lastModified()).append(';');
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+        return new DocsResponse('"' + Util.getDigestOf(version.toString()) + '"', lastModified);
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Sets the validators and answers <code>304 Not Modified</code> when the client copy is still valid.
+     *
+     * @return <code>true</code> if the response was sent and content must not be served
+     */
+    boolean notModified(StaplerRequest request, StaplerResponse response) {
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "private, no-cache");
+        boolean notModified;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch);
+        } else {
+            long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+            notModified = ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * Serves the content, or the requested byte range of it.
+     *
+     * @param content content to serve, positioned at its beginning
+     * @param length  content length in bytes
+     */
+    void serve(StaplerRequest request, StaplerResponse response, InputStream content, long length) throws IOException {
+        response.setHeader("Accept-Ranges", "bytes");
+        long start = 0;
+        long end = length - 1;
+        Matcher range = getRange(request);
+        if (range != null) {
+            try {
+                if (range.group(1).isEmpty()) { //last n bytes
+                    start = Math.max(0, length - Long.parseLong(range.group(2)));
+                } else {
+                    start = Long.parseLong(range.group(1));
+                    if (!range.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(range.group(2)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                start = 0;
+                end = length - 1;
+                range = null;
+            }
+        }
+        if (range != null) {
+            if (start >= length || start > end) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setHeader("Content-Length", Long.toString(count));
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        IOUtils.copyLarge(content, response.getOutputStream(), start, count);
+    }
+
+    /**
+     * @return the single byte range requested or <code>null</code> to serve the whole content. Multiple ranges are not
+     * supported and, as allowed by the specification, answered with the whole content
+     */
+    private Matcher getRange(StaplerRequest request) {
+        String range = request.getHeader("Range");
+        if (range == null) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRange.trim().equals(etag)) {
+            return null;
+        }
+        Matcher matcher = BYTE_RANGE.matcher(range.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        return matcher;
+    }
+
+    private boolean matches(String ifNoneMatch) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(StaplerRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Util;
+import org.apache.tools.ant.Project;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Fingerprint of everything that affects the generated documentation: cucumber json files,
+ * customization files and documentation options. Builds with the same fingerprint produce the same documentation.
+ */
+final class DocumentationFingerprint {
+
+    static final String CUSTOMIZATION_FILES = "**/cukedoctor-intro.adoc,**/cukedoctor.properties,**/cukedoctor.css,**/cukedoctor-pdf.yml";
+
+    private DocumentationFingerprint() {
+    }
+
+    /**
+     * @param jsonDigest       digest of cucumber json files, see {@link ParsedFeatures#getJsonDigest()}
+     * @param customizationDir directory where customization files were copied to
+     * @param options          documentation options (format, toc, title etc...)
+     * @return the documentation fingerprint or <code>null</code> if json files could not be digested
+     */
+    static String compute(String jsonDigest, File customizationDir, String options) throws IOException {
+        if (jsonDigest == null) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        update(digest, jsonDigest);
+        if (customizationDir.exists()) {
+            update(digest, digestFiles(customizationDir, scan(customizationDir, CUSTOMIZATION_FILES)));
+        }
+        update(digest, options);
+        return Util.toHexString(digest.digest());
+    }
+
+    static String[] scan(File baseDir, String includes) {
+        return Util.createFileSet(baseDir, includes).getDirectoryScanner(new Project()).getIncludedFiles();
+    }
+
+    /**
+     * Digests relative paths and contents of given files in a stable (sorted) order.
+     */
+    static String digestFiles(File baseDir, String[] relativePaths) throws IOException {
+        String[] sortedPaths = relativePaths.clone();
+        Arrays.sort(sortedPaths);
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        for (String relativePath : sortedPaths) {
+            update(digest, relativePath.replace('\\', '/'));
+            try (InputStream is = new DigestInputStream(new FileInputStream(new File(baseDir, relativePath)), digest)) {
+                while (is.read(buffer) != -1) {
+                    //digest is updated while reading
+                }
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
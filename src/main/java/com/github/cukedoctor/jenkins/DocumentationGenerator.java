@@ -0,0 +1,414 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.Cukedoctor;
+import com.github.cukedoctor.CukedoctorMain;
+import com.github.cukedoctor.api.CukedoctorConverter;
+import com.github.cukedoctor.api.DocumentAttributes;
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.config.CukedoctorConfig;
+import com.github.cukedoctor.config.GlobalConfig;
+import com.github.cukedoctor.jenkins.model.FormatType;
+import com.github.cukedoctor.jenkins.model.TocType;
+import com.github.cukedoctor.util.FileUtil;
+import hudson.Util;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.OptionsBuilder;
+import org.asciidoctor.SafeMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the adoc file and renders the living documentation of parsed features.
+ * <p>
+ * It only holds documentation options so it can be sent to the node which ran the build and generate the documentation there.
+ */
+class DocumentationGenerator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * directory of multi page documentation, see {@link #renderPages(List, CukedoctorConfig, File, List, boolean, RenderControl)}
+     */
+    static final String PAGES_DIR = "pages";
+
+    static final String PAGES_INDEX = "index.html";
+
+    static final Pattern PAGE_NAME = Pattern.compile("[a-z0-9-]+\\.html");
+
+    private final FormatType format;
+
+    private final TocType toc;
+
+    private final String title;
+
+    private final boolean numbered;
+
+    private final boolean sectAnchors;
+
+    private final boolean hideFeaturesSection;
+
+    private final boolean hideSummary;
+
+    private final boolean hideScenarioKeyword;
+
+    private final boolean hideStepTime;
+
+    private final boolean hideTags;
+
+    DocumentationGenerator(FormatType format, TocType toc, String title, boolean numbered, boolean sectAnchors, boolean hideFeaturesSection,
+                           boolean hideSummary, boolean hideScenarioKeyword, boolean hideStepTime, boolean hideTags) {
+        this.format = format;
+        this.toc = toc;
+        this.title = title;
+        this.numbered = numbered;
+        this.sectAnchors = sectAnchors;
+        this.hideFeaturesSection = hideFeaturesSection;
+        this.hideSummary = hideSummary;
+        this.hideScenarioKeyword = hideScenarioKeyword;
+        this.hideStepTime = hideStepTime;
+        this.hideTags = hideTags;
+    }
+
+    FormatType getFormat() {
+        return format;
+    }
+
+    /**
+     * @return backends to render, for format 'all' html and pdf are rendered at the same time
+     */
+    List<String> getBackends() {
+        if (format.equals(FormatType.ALL)) {
+            return Arrays.asList("html5", "pdf");
+        }
+        if (isMultiPage()) {
+            return Collections.singletonList("html5");
+        }
+        return Collections.singletonList(format.getFormat());
+    }
+
+    /**
+     * @return adoc file of given backend, each backend has its own adoc file so they can be rendered at the same time
+     */
+    String getAdocPath(File docsDir, String backend) {
+        return new File(docsDir, getAdocName(format, backend)).getAbsolutePath();
+    }
+
+    static String getAdocName(FormatType format, String backend) {
+        return format.equals(FormatType.ALL) && isPdf(backend) ? "documentation-pdf.adoc" : "documentation.adoc";
+    }
+
+    /**
+     * Each render has its own copy of cukedoctor global attributes (with the defaults and overrides loaded by
+     * {@link GlobalConfig}) so concurrent renders do not interfere, the shared instance is never modified.
+     */
+    DocumentAttributes createDocumentAttributes(String backend) {
+        return copyOf(GlobalConfig.getInstance().getDocumentAttributes()).
+                backend(backend).
+                toc(toc.getToc()).
+                numbered(numbered).
+                sectAnchors(sectAnchors).
+                docTitle(title);
+    }
+
+    /**
+     * @return copy of the attributes, values are strings and booleans so they are shared with the copy
+     */
+    static DocumentAttributes copyOf(DocumentAttributes attributes) {
+        final DocumentAttributes copy = new DocumentAttributes();
+        for (Class<?> type = DocumentAttributes.class; type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                try {
+                    field.set(copy, field.get(attributes));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Could not copy document attribute " + field.getName(), e);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @param customizationDir directory containing customization files (cukedoctor-intro.adoc, cukedoctor.css...)
+     */
+    CukedoctorConfig createCukedoctorConfig(String customizationDir) {
+        return new CukedoctorConfig()
+                .setIntroChapterDir(customizationDir)
+                .setIntroChapterRelativePath(customizationDir)
+                .setHideFeaturesSection(hideFeaturesSection)
+                .setHideSummarySection(hideSummary)
+                .setHideScenarioKeyword(hideScenarioKeyword)
+                .setHideStepTime(hideStepTime)
+                .setHideTags(hideTags)
+                .setCustomizationDir(customizationDir);
+    }
+
+    /**
+     * @return all options which affect the generated documentation, used in documentation fingerprint
+     */
+    String getOptions() {
+        return new StringBuilder("format=").append(format.getFormat())
+                .append(";toc=").append(toc.getToc())
+                .append(";title=").append(title)
+                .append(";numbered=").append(numbered)
+                .append(";sectAnchors=").append(sectAnchors)
+                .append(";hideFeaturesSection=").append(hideFeaturesSection)
+                .append(";hideSummary=").append(hideSummary)
+                .append(";hideScenarioKeyword=").append(hideScenarioKeyword)
+                .append(";hideStepTime=").append(hideStepTime)
+                .append(";hideTags=").append(hideTags)
+                .append(";cukedoctor=").append(CukedoctorMain.class.getPackage().getImplementationVersion())
+                .toString();
+    }
+
+    boolean isMultiPage() {
+        return format.equals(FormatType.MULTI_PAGE);
+    }
+
+    static boolean isPdf(String backend) {
+        return "pdf".equalsIgnoreCase(backend);
+    }
+
+    /**
+     * Converts features into asciidoc and saves it at <code>outputPath</code>.
+     *
+     * @param attachments embeddings extracted from features, listed in an html only section at the end of the documentation
+     */
+    static File generateAdoc(List<Feature> features, DocumentAttributes attrs, CukedoctorConfig cukedoctorConfig, String outputPath,
+                             List<FeatureAttachment> attachments) {
+        CukedoctorConverter converter = Cukedoctor.instance(features, attrs, cukedoctorConfig);
+        converter.setFilename(outputPath);
+        return FileUtil.saveFile(outputPath, converter.renderDocumentation() + createAttachmentsSection(attachments, FeatureAttachment.ATTACHMENTS_DIR));
+    }
+
+    /**
+     * Attachments are grouped by feature. Images are loaded lazily and other attachments are linked, both are served
+     * by {@link CukedoctorBuildAction#doAttachments}.
+     */
+    static String createAttachmentsSection(List<FeatureAttachment> attachments, String attachmentsUrl) {
+        if (attachments.isEmpty()) {
+            return "";
+        }
+        StringBuilder section = new StringBuilder("\n\nifdef::backend-html5[]\n== Attachments\n");
+        Integer feature = null;
+        for (FeatureAttachment attachment : attachments) {
+            List<String> path = attachment.getPath();
+            if (feature == null || attachment.getFeature() != feature) { //features with the same name get their own group
+                feature = attachment.getFeature();
+                String featureName = path.isEmpty() ? "" : path.get(0).replaceAll("\\s+", " ");
+                section.append("\n=== ").append(featureName.isEmpty() ? "Other" : featureName).append("\n\n");
+            }
+            String label = path.size() > 1 ? String.join(" > ", path.subList(1, path.size())) : attachment.getFileName();
+            String url = attachmentsUrl + "/" + attachment.getFileName();
+            section.append("++++\n<div class=\"paragraph\"><p>").append(escapeHtml(label)).append("</p>");
+            if (attachment.isImage()) {
+                section.append("<a href=\"").append(url).append("\" target=\"_blank\"><img src=\"").append(url)
+                        .append("\" loading=\"lazy\" style=\"max-width:100%\" alt=\"").append(escapeHtml(label)).append("\"/></a>");
+            } else {
+                section.append("<a href=\"").append(url).append("\" target=\"_blank\">").append(escapeHtml(attachment.getFileName())).append("</a>");
+            }
+            section.append("</div>\n++++\n\n");
+        }
+        return section.append("endif::[]\n").toString();
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Generates and renders the multi page documentation in the <code>pages</code> directory of <code>docsDir</code>:
+     * one page per feature and an index page linking them.
+     * <p>
+     * Pages are rendered in parallel, each worker using its own Asciidoctor instance for all the pages it renders. On master
+     * (pooled instances) there are at most as many workers as the Asciidoctor pool size so a rendering slot of the
+     * {@link RenderingScheduler} never holds more instances than configured, on agents there is one worker per core.
+     *
+     * @param pooled  whether Asciidoctor instances are borrowed from {@link AsciidoctorPool} (master) or created for this rendering (agent)
+     * @param control lets the waiting thread abort the rendering
+     */
+    void renderPages(List<Feature> features, CukedoctorConfig cukedoctorConfig, File docsDir, List<FeatureAttachment> attachments,
+                     boolean pooled, RenderControl control) throws IOException, InterruptedException {
+        control.enter(RenderControl.PAGES);
+        final File pagesDir = new File(docsDir, PAGES_DIR);
+        Util.deleteRecursive(pagesDir);
+        Files.createDirectories(pagesDir.toPath());
+        final List<Callable<File>> pages = new ArrayList<>();
+        final StringBuilder index = new StringBuilder("= ").append(title).append("\n\n== Features\n\n");
+        for (int i = 0; i < features.size(); i++) {
+            final Feature feature = features.get(i);
+            final int position = i;
+            final String pageName = getPageName(i, feature.getName());
+            //like page names, features without a name are named after their position
+            final String featureTitle = feature.getName() == null || feature.getName().trim().isEmpty() ? "Feature " + (i + 1) : feature.getName();
+            index.append(". link:").append(pageName).append(".html[").append(featureTitle.replace("]", "\\]")).append("]\n");
+            pages.add(() -> {
+                String adocPath = new File(pagesDir, pageName + ".adoc").getAbsolutePath();
+                CukedoctorConverter converter = Cukedoctor.instance(Collections.singletonList(feature), createDocumentAttributes("html5").docTitle(featureTitle), cukedoctorConfig);
+                converter.setFilename(adocPath);
+                return FileUtil.saveFile(adocPath, converter.renderDocumentation()
+                        + createAttachmentsSection(getAttachments(position, attachments), "../" + FeatureAttachment.ATTACHMENTS_DIR)
+                        + "\n\nlink:" + PAGES_INDEX + "[Back to index]\n");
+            });
+        }
+        final String indexAdoc = index.toString();
+        pages.add(() -> FileUtil.saveFile(new File(pagesDir, "index.adoc").getAbsolutePath(), indexAdoc));
+        renderInParallel(pages, pooled, control);
+    }
+
+    private static void renderInParallel(List<Callable<File>> adocs, final boolean pooled, final RenderControl control) throws IOException, InterruptedException {
+        final Queue<Callable<File>> queue = new ConcurrentLinkedQueue<>(adocs);
+        //each worker holds a JRuby runtime, on master they are bounded like the pool (a pool size of 0 still renders)
+        final int maxWorkers = pooled ? AsciidoctorPool.getPoolSize() : Runtime.getRuntime().availableProcessors();
+        final int workers = Math.max(1, Math.min(maxWorkers, adocs.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                results.add(executor.submit(() -> {
+                    Asciidoctor asciidoctor = pooled ? AsciidoctorPool.get().borrow(true) : createAsciidoctor(true);
+                    control.using(asciidoctor);
+                    boolean reusable = false;
+                    try {
+                        Callable<File> adoc;
+                        while ((adoc = queue.poll()) != null) {
+                            File adocFile = adoc.call();
+                            control.checkAborted();
+                            render(asciidoctor, adocFile, "html5", new File(adocFile.getParentFile(), adocFile.getName().replaceAll("\\.adoc$", ".html")));
+                        }
+                        reusable = true;
+                    } finally {
+                        if (control.release(asciidoctor)) { //otherwise it was shut down by an abort
+                            if (!pooled) {
+                                asciidoctor.shutdown();
+                            } else if (reusable) {
+                                AsciidoctorPool.get().release(asciidoctor, true);
+                            } else {
+                                AsciidoctorPool.get().discard(asciidoctor);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            queue.clear();
+            throw new IOException("Could not render documentation pages: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            queue.clear();
+            control.abort();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return page name, prefixed by the feature position so pages are unique and sorted as features
+     */
+    static String getPageName(int position, String featureName) {
+        String slug = featureName == null ? "" : featureName.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        if (slug.length() > 50) {
+            slug = slug.substring(0, 50);
+        }
+        return String.format("%03d", position + 1) + (slug.isEmpty() ? "" : "-" + slug);
+    }
+
+    /**
+     * @param position position of the feature in parsed features, see {@link FeatureAttachment#getFeature()}
+     */
+    private static List<FeatureAttachment> getAttachments(int position, List<FeatureAttachment> attachments) {
+        List<FeatureAttachment> featureAttachments = new ArrayList<>();
+        for (FeatureAttachment attachment : attachments) {
+            if (attachment.getFeature() == position) {
+                featureAttachments.add(attachment);
+            }
+        }
+        return featureAttachments;
+    }
+
+    /**
+     * Renders the adoc file. Rendered documentation is always named <code>documentation.html</code> or
+     * <code>documentation.pdf</code> and is saved in the same directory as the adoc file.
+     */
+    static void render(Asciidoctor asciidoctor, File adocFile, String backend) {
+        render(asciidoctor, adocFile, backend, getRenderedFile(adocFile, backend));
+    }
+
+    static void render(Asciidoctor asciidoctor, File adocFile, String backend, File renderedFile) {
+        asciidoctor.convertFile(adocFile, OptionsBuilder.options()
+                .backend(backend)
+                .safe(SafeMode.UNSAFE)
+                .toFile(renderedFile));
+    }
+
+    /**
+     * Renders the adoc file with a pooled Asciidoctor instance, see {@link AsciidoctorPool}.
+     *
+     * @param control lets the thread waiting for the rendering abort it, see {@link RenderControl}
+     */
+    static void renderPooled(File adocFile, String backend, File renderedFile, RenderControl control) throws InterruptedException {
+        final boolean extensions = !isPdf(backend);
+        final AsciidoctorPool asciidoctorPool = AsciidoctorPool.get();
+        final Asciidoctor asciidoctor = asciidoctorPool.borrow(extensions);
+        control.using(asciidoctor);
+        boolean rendered = false;
+        try {
+            control.enter(RenderControl.rendering(backend));
+            render(asciidoctor, adocFile, backend, renderedFile);
+            rendered = true;
+        } finally {
+            if (control.release(asciidoctor)) { //otherwise it was shut down by an abort and must not go back to the pool
+                if (rendered) {
+                    asciidoctorPool.release(asciidoctor, extensions);
+                } else {
+                    asciidoctorPool.discard(asciidoctor);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return file the adoc file is rendered to with given backend, see {@link #render(Asciidoctor, File, String)}
+     */
+    static File getRenderedFile(File adocFile, String backend) {
+        return new File(adocFile.getParentFile(), "documentation" + (isPdf(backend) ? ".pdf" : ".html"));
+    }
+
+    /**
+     * Creates the Asciidoctor instances of {@link AsciidoctorPool} on master and of renders on agents.
+     * cukedoctor extensions are registered in every new instance (each instance has its own JRuby runtime)
+     * so they are unregistered from the instance itself when not wanted (pdf), no global state is involved.
+     */
+    static Asciidoctor createAsciidoctor(boolean extensions) {
+        Asciidoctor asciidoctor = Asciidoctor.Factory.create();
+        if (!extensions) {
+            asciidoctor.unregisterAllExtensions();
+        }
+        return asciidoctor;
+    }
+}
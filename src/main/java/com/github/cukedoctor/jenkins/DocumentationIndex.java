@@ -0,0 +1,230 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.jenkins.model.CukedoctorBuild;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Job level index of the builds which published living documentation, saved in <code>cucumber-living-documentation.xml</code>
+ * in the job directory.
+ * <p>
+ * It is updated when documentation is published and when builds are deleted so the documentation history does not
+ * need to load every build of the job. Jobs without an index (e.g. published before the index existed) are indexed once
+ * from the build directories which contain documentation.
+ */
+public final class DocumentationIndex {
+
+    private static final Logger LOG = Logger.getLogger(DocumentationIndex.class.getName());
+
+    private static final String FILE_NAME = CukedoctorBaseAction.BASE_URL + ".xml";
+
+    private static final Map<Job<?, ?>, DocumentationIndex> INDEXES = new WeakHashMap<>();
+
+    /**
+     * weak so the index does not keep its key in {@link #INDEXES} alive
+     */
+    private transient WeakReference<Job<?, ?>> job;
+
+    /**
+     * newest builds first
+     */
+    private final List<CukedoctorBuild> builds = new ArrayList<>();
+
+    private DocumentationIndex(Job<?, ?> job) {
+        this.job = new WeakReference<Job<?, ?>>(job);
+    }
+
+    public static DocumentationIndex of(Job<?, ?> job) {
+        synchronized (INDEXES) {
+            DocumentationIndex index = INDEXES.get(job);
+            if (index != null) {
+                return index;
+            }
+        }
+        DocumentationIndex loaded = load(job); //not loaded under lock, indexing build directories may take a while
+        synchronized (INDEXES) {
+            DocumentationIndex index = INDEXES.get(job);
+            if (index == null) {
+                index = loaded;
+                INDEXES.put(job, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return whether the index of given job is loaded
+     */
+    static boolean isLoaded(Job<?, ?> job) {
+        synchronized (INDEXES) {
+            return INDEXES.containsKey(job);
+        }
+    }
+
+    /**
+     * @return indexed builds, newest first
+     */
+    public synchronized List<CukedoctorBuild> getBuilds() {
+        return Collections.unmodifiableList(new ArrayList<>(builds));
+    }
+
+    /**
+     * @param from oldest build time included, <code>null</code> for no lower bound
+     * @param to   newest build time included, <code>null</code> for no upper bound
+     * @return indexed builds published in given period, newest first
+     */
+    public synchronized List<CukedoctorBuild> getBuilds(Date from, Date to) {
+        List<CukedoctorBuild> result = new ArrayList<>();
+        for (CukedoctorBuild build : builds) {
+            if ((from == null || !build.getBuildTime().before(from)) && (to == null || !build.getBuildTime().after(to))) {
+                result.add(build);
+            }
+        }
+        return result;
+    }
+
+    synchronized void add(CukedoctorBuild build) {
+        removeEntry(build.getBuildNumber());
+        int position = 0;
+        while (position < builds.size() && builds.get(position).getBuildNumber() > build.getBuildNumber()) {
+            position++;
+        }
+        builds.add(position, build);
+        save();
+    }
+
+    synchronized void remove(int buildNumber) {
+        if (removeEntry(buildNumber)) {
+            save();
+        }
+    }
+
+    private boolean removeEntry(int buildNumber) {
+        for (Iterator<CukedoctorBuild> it = builds.iterator(); it.hasNext(); ) {
+            if (it.next().getBuildNumber() == buildNumber) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void save() {
+        final Job<?, ?> job = this.job.get();
+        if (job == null) {
+            return; //job was deleted
+        }
+        try {
+            getXmlFile(job).write(this);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save living documentation index of " + job.getFullName(), e);
+        }
+    }
+
+    private static XmlFile getXmlFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(job.getRootDir(), FILE_NAME));
+    }
+
+    private static DocumentationIndex load(Job<?, ?> job) {
+        XmlFile xmlFile = getXmlFile(job);
+        if (xmlFile.exists()) {
+            try {
+                DocumentationIndex index = (DocumentationIndex) xmlFile.read();
+                index.job = new WeakReference<Job<?, ?>>(job);
+                index.removeMissingBuilds(job);
+                return index;
+            } catch (IOException | ClassCastException e) {
+                LOG.log(Level.WARNING, "Could not read living documentation index of " + job.getFullName() + ", rebuilding it.", e);
+            }
+        }
+        DocumentationIndex index = new DocumentationIndex(job);
+        index.indexBuildDirectories(job);
+        return index;
+    }
+
+    /**
+     * Drops builds whose directory was removed while Jenkins was not running.
+     */
+    private synchronized void removeMissingBuilds(Job<?, ?> job) {
+        boolean changed = false;
+        for (Iterator<CukedoctorBuild> it = builds.iterator(); it.hasNext(); ) {
+            if (!new File(job.getBuildDir(), String.valueOf(it.next().getBuildNumber())).isDirectory()) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Only builds whose directory contains documentation are loaded.
+     */
+    private synchronized void indexBuildDirectories(Job<?, ?> job) {
+        File[] buildDirs = job.getBuildDir().listFiles();
+        if (buildDirs == null) {
+            return;
+        }
+        List<Integer> buildNumbers = new ArrayList<>();
+        for (File buildDir : buildDirs) {
+            if (buildDir.getName().matches("\\d+") && new File(buildDir, CukedoctorBaseAction.BASE_URL).isDirectory()) {
+                buildNumbers.add(Integer.valueOf(buildDir.getName()));
+            }
+        }
+        Collections.sort(buildNumbers, Collections.reverseOrder());
+        for (Integer buildNumber : buildNumbers) {
+            Run<?, ?> build = job.getBuildByNumber(buildNumber);
+            CukedoctorBuildAction action = build != null ? build.getAction(CukedoctorBuildAction.class) : null;
+            if (action != null) {
+                builds.add(action.getCukedoctorBuild());
+            }
+        }
+        if (!builds.isEmpty()) {
+            save();
+        }
+    }
+
+    @Extension
+    public static class BuildDeletionListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            if (run.getAction(CukedoctorBuildAction.class) != null) {
+                of(run.getParent()).remove(run.getNumber());
+            }
+        }
+    }
+
+    @Extension
+    public static class JobDeletionListener extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                synchronized (INDEXES) {
+                    INDEXES.remove(item);
+                }
+            }
+        }
+    }
+}
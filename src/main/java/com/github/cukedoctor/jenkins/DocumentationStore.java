@@ -0,0 +1,345 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Job level content addressed store of documentation files, in <code>cucumber-living-documentation-store</code> in the
+ * job directory.
+ * <p>
+ * Once a build published its documentation, each of its files is replaced by a hard link to the store file with the
+ * same content (sha-256) so identical json, AsciiDoc, rendered documentation, themes and attachments of successive
+ * builds are stored once. Store files are reference counted: the hashes a build links are listed in its
+ * {@link #MANIFEST} and released when the build is deleted, store files nobody links anymore are then deleted. When the
+ * references file is lost they are counted again from the manifests.
+ * <p>
+ * Published documentation files must not be written in place since writing to one would change the documentation of
+ * every build linking it: they are replaced (written to another file then moved) instead. Their permissions are left
+ * as is so documentation copied from a build keeps being writable. When hard links are not supported (file system,
+ * build directories on another volume) files are kept as regular copies.
+ */
+public final class DocumentationStore {
+
+    private static final Logger LOG = Logger.getLogger(DocumentationStore.class.getName());
+
+    static final String STORE_DIR = CukedoctorBaseAction.BASE_URL + "-store";
+
+    /**
+     * hashes of the store files linked by a build, one per line, in its documentation directory
+     */
+    static final String MANIFEST = ".store-manifest";
+
+    private static final String REFS_FILE = "refs.xml";
+
+    /**
+     * smaller files are not worth a link
+     */
+    static final long MIN_FILE_SIZE = 4 * 1024;
+
+    private static final Map<Job<?, ?>, DocumentationStore> STORES = new WeakHashMap<>();
+
+    /**
+     * weak so the store does not keep its key in {@link #STORES} alive, the store directory is computed from it on each
+     * call since the job directory changes when the job is renamed or moved
+     */
+    private transient WeakReference<Job<?, ?>> job;
+
+    /**
+     * number of build files linking each store file, by hash
+     */
+    private final TreeMap<String, Integer> refs = new TreeMap<>();
+
+    private DocumentationStore(Job<?, ?> job) {
+        this.job = new WeakReference<Job<?, ?>>(job);
+    }
+
+    public static DocumentationStore of(Job<?, ?> job) {
+        synchronized (STORES) {
+            DocumentationStore store = STORES.get(job);
+            if (store == null) {
+                store = load(job);
+                STORES.put(job, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Forgets the store of a job, it is loaded again on next access.
+     */
+    static void unload(Job<?, ?> job) {
+        synchronized (STORES) {
+            STORES.remove(job);
+        }
+    }
+
+    /**
+     * Links files of a build documentation directory to the store.
+     *
+     * @return how many files were linked and how many bytes they would have used, <code>{0, 0}</code> if the
+     * documentation was already deduplicated or links are not supported
+     */
+    synchronized long[] deduplicate(File docsDir) throws IOException {
+        final File manifest = new File(docsDir, MANIFEST);
+        if (manifest.exists() || !docsDir.isDirectory()) {
+            return new long[]{0, 0};
+        }
+        final File storeDir = getStoreDir();
+        final List<String> linked = new ArrayList<>();
+        long savedBytes = 0;
+        try {
+            for (File file : listFiles(docsDir)) {
+                final String hash = hash(file);
+                final Path blob = getBlob(storeDir, hash);
+                final long length = file.length();
+                if (Files.exists(blob)) {
+                    final Path link = new File(file.getPath() + ".link").toPath();
+                    Files.deleteIfExists(link);
+                    Files.createLink(link, blob);
+                    Files.move(link, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    savedBytes += length;
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    Files.createLink(blob, file.toPath());
+                }
+                Integer count = refs.get(hash);
+                refs.put(hash, count != null ? count + 1 : 1);
+                linked.add(hash);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.log(Level.WARNING, "Could not link documentation files of " + docsDir + " to the store, remaining files are kept as copies.", e);
+        } finally {
+            Files.write(manifest.toPath(), linked, StandardCharsets.UTF_8);
+            save(storeDir);
+        }
+        return new long[]{linked.size(), savedBytes};
+    }
+
+    /**
+     * Releases the store files linked by a build documentation directory, store files which are not linked anymore are deleted.
+     */
+    synchronized void release(File docsDir) throws IOException {
+        final File manifest = new File(docsDir, MANIFEST);
+        if (!manifest.isFile()) {
+            return;
+        }
+        final File storeDir = getStoreDir();
+        for (String hash : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            Integer count = refs.get(hash);
+            if (count == null) {
+                continue;
+            }
+            if (count > 1) {
+                refs.put(hash, count - 1);
+                continue;
+            }
+            refs.remove(hash);
+            deleteBlob(getBlob(storeDir, hash).toFile());
+        }
+        save(storeDir);
+    }
+
+    /**
+     * Counts the references of the store files from the manifests of the builds, used when the references file is lost.
+     * Store files no build links are deleted, builds keep their content through their own links.
+     */
+    private void countReferences(File buildsDir, File storeDir) {
+        final File[] builds = buildsDir.listFiles();
+        if (builds != null) {
+            for (File build : builds) {
+                //legacy build directories have symbolic links named after build numbers, they are not counted twice
+                final File manifest = new File(build, CukedoctorBaseAction.BASE_URL + "/" + MANIFEST);
+                if (Files.isSymbolicLink(build.toPath()) || !manifest.isFile()) {
+                    continue;
+                }
+                try {
+                    for (String hash : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                        if (!hash.isEmpty()) {
+                            Integer count = refs.get(hash);
+                            refs.put(hash, count != null ? count + 1 : 1);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Could not read documentation store manifest " + manifest, e);
+                }
+            }
+        }
+        final File[] prefixes = storeDir.listFiles(File::isDirectory);
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                final File[] blobs = prefix.listFiles();
+                if (blobs == null) {
+                    continue;
+                }
+                for (File blob : blobs) {
+                    if (!refs.containsKey(blob.getName())) {
+                        deleteBlob(blob);
+                    }
+                }
+            }
+        }
+        save(storeDir);
+    }
+
+    /**
+     * Store files made read only by previous versions are made writable to be deleted.
+     */
+    private static void deleteBlob(File blob) {
+        if (!blob.delete() && blob.exists()) {
+            if (!blob.setWritable(true) || !blob.delete()) {
+                LOG.log(Level.WARNING, "Could not delete unused documentation store file {0}", blob);
+            }
+        }
+    }
+
+    /**
+     * @return number of store files
+     */
+    synchronized int size() {
+        return refs.size();
+    }
+
+    /**
+     * @return references to the store file with given hash
+     */
+    synchronized int getReferences(String hash) {
+        Integer count = refs.get(hash);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return regular files of the documentation directory worth linking, in a stable order
+     */
+    private static List<File> listFiles(File dir) {
+        final List<File> files = new ArrayList<>();
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return files;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (Files.isSymbolicLink(child.toPath())) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                files.addAll(listFiles(child));
+            } else if (child.isFile() && child.length() >= MIN_FILE_SIZE && !child.getName().equals(CukedoctorBuildAction.RENDERING_LOG)) {
+                files.add(child);
+            }
+        }
+        return files;
+    }
+
+    private File getStoreDir() throws IOException {
+        final Job<?, ?> job = this.job.get();
+        if (job == null) {
+            throw new IOException("Job of the documentation store was deleted");
+        }
+        return new File(job.getRootDir(), STORE_DIR);
+    }
+
+    private static Path getBlob(File storeDir, String hash) {
+        return new File(storeDir, hash.substring(0, 2) + "/" + hash).toPath();
+    }
+
+    static String hash(File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        final byte[] buffer = new byte[8192];
+        try (InputStream is = new DigestInputStream(new FileInputStream(file), digest)) {
+            while (is.read(buffer) != -1) {
+                //digest is updated while reading
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private void save(File storeDir) {
+        try {
+            new XmlFile(Jenkins.XSTREAM2, new File(storeDir, REFS_FILE)).write(this);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save documentation store references of " + storeDir, e);
+        }
+    }
+
+    private static DocumentationStore load(Job<?, ?> job) {
+        final File storeDir = new File(job.getRootDir(), STORE_DIR);
+        XmlFile xmlFile = new XmlFile(Jenkins.XSTREAM2, new File(storeDir, REFS_FILE));
+        if (xmlFile.exists()) {
+            try {
+                DocumentationStore store = (DocumentationStore) xmlFile.read();
+                store.job = new WeakReference<Job<?, ?>>(job);
+                return store;
+            } catch (IOException | ClassCastException e) {
+                LOG.log(Level.WARNING, "Could not read documentation store references of " + storeDir + ", they are counted again from the builds.", e);
+            }
+        }
+        final DocumentationStore store = new DocumentationStore(job);
+        if (storeDir.isDirectory()) {
+            store.countReferences(job.getBuildDir(), storeDir);
+        }
+        return store;
+    }
+
+    @Extension
+    public static class BuildDeletionListener extends RunListener<Run<?, ?>> {
+
+        /**
+         * Called before the build directory is deleted, the build still links the store files it releases.
+         */
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            File docsDir = new File(run.getRootDir(), CukedoctorBaseAction.BASE_URL);
+            if (new File(docsDir, MANIFEST).isFile()) {
+                try {
+                    of(run.getParent()).release(docsDir);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Could not release documentation store files of " + run.getFullDisplayName(), e);
+                }
+            }
+        }
+    }
+
+    @Extension
+    public static class JobDeletionListener extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                unload((Job<?, ?>) item);
+            }
+        }
+    }
+}
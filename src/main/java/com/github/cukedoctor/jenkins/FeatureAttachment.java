@@ -0,0 +1,123 @@
+package com.github.cukedoctor.jenkins;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A cucumber embedding (screenshot, log...) extracted to its own file under the documentation <code>attachments</code>
+ * directory. Files are named after the sha-256 of their content so identical attachments are stored once.
+ */
+class FeatureAttachment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String ATTACHMENTS_DIR = "attachments";
+
+    static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]+");
+
+    private final String fileName;
+
+    private final String mimeType;
+
+    /**
+     * names of the feature, scenario and step the attachment belongs to, outermost first
+     */
+    private final LinkedList<String> path = new LinkedList<>();
+
+    /**
+     * position of the feature the attachment belongs to in the parsed features, features names are not unique
+     */
+    private int feature = -1;
+
+    FeatureAttachment(String fileName, String mimeType) {
+        this.fileName = fileName;
+        this.mimeType = mimeType;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    boolean isImage() {
+        return isInlineImage(fileName);
+    }
+
+    List<String> getPath() {
+        return Collections.unmodifiableList(new ArrayList<>(path));
+    }
+
+    void addParent(String name) {
+        path.addFirst(name);
+    }
+
+    /**
+     * @return position of the feature the attachment belongs to, <code>-1</code> if its feature could not be parsed
+     */
+    int getFeature() {
+        return feature;
+    }
+
+    void setFeature(int feature) {
+        this.feature = feature;
+    }
+
+    static String extension(String mimeType) {
+        if (mimeType == null) {
+            return "bin";
+        }
+        switch (mimeType.toLowerCase(Locale.ENGLISH)) {
+            case "image/png":
+                return "png";
+            case "image/jpeg":
+            case "image/jpg":
+                return "jpg";
+            case "image/gif":
+                return "gif";
+            case "image/svg+xml":
+                return "svg";
+            case "text/plain":
+                return "txt";
+            case "text/html":
+                return "html";
+            case "application/json":
+                return "json";
+            case "application/xml":
+            case "text/xml":
+                return "xml";
+            default:
+                return "bin";
+        }
+    }
+
+    /**
+     * @return whether the attachment can be shown inline, active content (html, svg...) is only downloaded
+     */
+    static boolean isInlineImage(String fileName) {
+        return fileName.endsWith(".png") || fileName.endsWith(".jpg") || fileName.endsWith(".gif");
+    }
+
+    /**
+     * @return content type attachments are served with, only images and plain text are served with their own type
+     */
+    static String contentType(String fileName) {
+        if (fileName.endsWith(".png")) {
+            return "image/png";
+        } else if (fileName.endsWith(".jpg")) {
+            return "image/jpeg";
+        } else if (fileName.endsWith(".gif")) {
+            return "image/gif";
+        } else if (fileName.endsWith(".txt")) {
+            return "text/plain;charset=UTF-8";
+        }
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Documentation inputs found on the node which ran the build: cucumber json reports and customization files.
+ * <p>
+ * Both are searched in a single walk of the workspace, excluded directories (e.g. <code>node_modules</code>) are not
+ * entered. Json files matching the include patterns are only kept when their header looks like a cucumber report
+ * (an array of features) so other json files (<code>package.json</code>, tool configuration...) are neither parsed nor copied.
+ */
+final class InputDiscovery implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String DEFAULT_JSON_INCLUDES = "**/*.json";
+
+    static final String DEFAULT_EXCLUDES = "**/node_modules/**";
+
+    /**
+     * how many bytes of a json file are read to tell whether it is a cucumber report
+     */
+    private static final int HEADER_SIZE = 16 * 1024;
+
+    private static final String[] FEATURE_KEYS = {"\"elements\"", "\"keyword\"", "\"uri\""};
+
+    private final List<String> jsonFiles;
+
+    private final List<String> customizationFiles;
+
+    private final int skippedJsonFiles;
+
+    private InputDiscovery(List<String> jsonFiles, List<String> customizationFiles, int skippedJsonFiles) {
+        this.jsonFiles = jsonFiles;
+        this.customizationFiles = customizationFiles;
+        this.skippedJsonFiles = skippedJsonFiles;
+    }
+
+    static InputDiscovery empty() {
+        return new InputDiscovery(new ArrayList<>(), new ArrayList<>(), 0);
+    }
+
+    /**
+     * @param workspace          directory customization files are searched in
+     * @param featuresDir        directory cucumber json files are searched in, usually inside the workspace
+     * @param jsonIncludes       comma separated patterns of json files, relative to <code>featuresDir</code>
+     * @param excludes           comma separated patterns of files and directories to skip, relative to the workspace
+     *                           (or to <code>featuresDir</code> when it is outside of the workspace)
+     * @param customizationFiles comma separated paths or patterns of customization files, relative to the workspace
+     */
+    static InputDiscovery discover(File workspace, File featuresDir, String jsonIncludes, String excludes, String customizationFiles) throws IOException {
+        List<String> jsonPatterns = split(jsonIncludes);
+        List<String> customizationPatterns = split(customizationFiles);
+        List<String> jsonCandidates = new ArrayList<>();
+        List<String> customization = new ArrayList<>();
+        String featuresPath = relativePath(workspace, featuresDir);
+        if (featuresPath == null) {
+            //features dir is outside the workspace, it has to be walked on its own
+            jsonCandidates.addAll(scan(featuresDir, jsonPatterns, excludes));
+            customization.addAll(scan(workspace, customizationPatterns, excludes));
+        } else {
+            String prefix = featuresPath.isEmpty() ? "" : featuresPath + "/";
+            List<String> patterns = new ArrayList<>(customizationPatterns);
+            for (String jsonPattern : jsonPatterns) {
+                patterns.add(prefix + jsonPattern);
+            }
+            for (String file : scan(workspace, patterns, excludes)) {
+                if (matches(customizationPatterns, file)) {
+                    customization.add(file);
+                }
+                if (file.startsWith(prefix) && matches(jsonPatterns, file.substring(prefix.length()))) {
+                    jsonCandidates.add(file.substring(prefix.length()));
+                }
+            }
+        }
+        List<String> reports = new ArrayList<>();
+        for (String jsonFile : jsonCandidates) {
+            if (isCucumberReport(new File(featuresDir, jsonFile))) {
+                reports.add(jsonFile);
+            }
+        }
+        return new InputDiscovery(reports, customization, jsonCandidates.size() - reports.size());
+    }
+
+    /**
+     * Tells whether a json file is a cucumber report by its header: an array (possibly after a byte order mark)
+     * whose first element is an object with feature keys. Big reports whose first feature keys are beyond the
+     * header are kept, the parser decides.
+     */
+    static boolean isCucumberReport(File file) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while (length < header.length && (read = is.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+        }
+        int i = 0;
+        if (length >= 3 && (header[0] & 0xFF) == 0xEF && (header[1] & 0xFF) == 0xBB && (header[2] & 0xFF) == 0xBF) {
+            i = 3;
+        }
+        i = skipWhitespace(header, i, length);
+        if (i >= length || header[i] != '[') {
+            return false;
+        }
+        i = skipWhitespace(header, i + 1, length);
+        if (i >= length || header[i] != '{') {
+            return false;
+        }
+        String firstFeature = new String(header, i, length - i, StandardCharsets.UTF_8);
+        for (String key : FEATURE_KEYS) {
+            if (firstFeature.contains(key)) {
+                return true;
+            }
+        }
+        return length == header.length;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int from, int length) {
+        int i = from;
+        while (i < length && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static List<String> scan(File baseDir, List<String> includes, String excludes) {
+        if (includes.isEmpty() || !baseDir.isDirectory()) {
+            return Collections.emptyList();
+        }
+        List<String> files = new ArrayList<>();
+        for (String file : Util.createFileSet(baseDir, Util.join(includes, ","), Util.fixEmptyAndTrim(excludes))
+                .getDirectoryScanner(new Project()).getIncludedFiles()) {
+            files.add(file.replace('\\', '/'));
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static boolean matches(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(normalize(pattern), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same pattern normalization as ant: a trailing separator matches everything under the directory.
+     */
+    private static String normalize(String pattern) {
+        String normalized = pattern.replace('\\', '/');
+        return normalized.endsWith("/") ? normalized + "**" : normalized;
+    }
+
+    private static List<String> split(String patterns) {
+        List<String> result = new ArrayList<>();
+        if (patterns != null) {
+            for (String pattern : patterns.split(",")) {
+                if (!pattern.trim().isEmpty()) {
+                    result.add(pattern.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return path of <code>dir</code> relative to <code>baseDir</code> with forward slashes, <code>null</code> if it is not inside it
+     */
+    private static String relativePath(File baseDir, File dir) {
+        Path base = baseDir.toPath().toAbsolutePath().normalize();
+        Path path = dir.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(base)) {
+            return null;
+        }
+        return base.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * @return cucumber json reports, relative to the features directory
+     */
+    List<String> getJsonFiles() {
+        return jsonFiles;
+    }
+
+    /**
+     * @return customization files, relative to the workspace
+     */
+    List<String> getCustomizationFiles() {
+        return customizationFiles;
+    }
+
+    /**
+     * @return json files matching the include patterns which are not cucumber reports
+     */
+    int getSkippedJsonFiles() {
+        return skippedJsonFiles;
+    }
+
+    /**
+     * @return scanner of given discovered files, for {@link hudson.FilePath#copyRecursiveTo(DirScanner, hudson.FilePath, String)}.
+     * Files are named one by one rather than joined into an ant mask, names with a comma or a wildcard are copied as is.
+     */
+    static DirScanner scanner(List<String> files) {
+        return new DiscoveredFiles(files);
+    }
+
+    private static final class DiscoveredFiles extends DirScanner {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> files;
+
+        private DiscoveredFiles(List<String> files) {
+            this.files = new ArrayList<>(files);
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            for (String file : files) {
+                File f = new File(dir, file);
+                if (f.isFile()) {
+                    visitor.visit(f, file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Extension;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Plugin wide (global) living documentation settings.
+ */
+@Extension
+@Symbol("livingDocumentation")
+public class LivingDocumentationConfiguration extends GlobalConfiguration {
+
+    static final int DEFAULT_MAX_CONCURRENT_RENDERS = 2;
+
+    static final int DEFAULT_RENDER_QUEUE_CAPACITY = 50;
+
+    static final int DEFAULT_ENGINE_POOL_SIZE = 1;
+
+    static final int DEFAULT_ENGINE_IDLE_MINUTES = 30;
+
+    static final int DEFAULT_THEMED_DOCS_CACHE_SIZE = 64;
+
+    static final int DEFAULT_RENDERED_DOCS_DISK_BUDGET = 1024;
+
+    private int maxConcurrentRenders = DEFAULT_MAX_CONCURRENT_RENDERS;
+
+    private int renderQueueCapacity = DEFAULT_RENDER_QUEUE_CAPACITY;
+
+    private int enginePoolSize = DEFAULT_ENGINE_POOL_SIZE;
+
+    private boolean warmUpEngines;
+
+    private int engineIdleMinutes = DEFAULT_ENGINE_IDLE_MINUTES;
+
+    private int themedDocsCacheSize = DEFAULT_THEMED_DOCS_CACHE_SIZE;
+
+    private int renderedDocsDiskBudget = DEFAULT_RENDERED_DOCS_DISK_BUDGET;
+
+    private boolean deduplicateDocumentation;
+
+    public LivingDocumentationConfiguration() {
+        load();
+    }
+
+    /**
+     * @return the global configuration, only available on master while Jenkins is running (<code>null</code> otherwise, e.g. in benchmarks)
+     */
+    public static LivingDocumentationConfiguration get() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return null;
+        }
+        return GlobalConfiguration.all().get(LivingDocumentationConfiguration.class);
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Living documentation";
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    /**
+     * @return how many documentations can be rendered at the same time on master
+     */
+    public int getMaxConcurrentRenders() {
+        return maxConcurrentRenders > 0 ? maxConcurrentRenders : DEFAULT_MAX_CONCURRENT_RENDERS;
+    }
+
+    /**
+     * @return how many renders can wait for a free slot, further renders are rejected
+     */
+    public int getRenderQueueCapacity() {
+        return renderQueueCapacity > 0 ? renderQueueCapacity : DEFAULT_RENDER_QUEUE_CAPACITY;
+    }
+
+    /**
+     * @return how many idle Asciidoctor instances are kept for html and for pdf rendering, <code>0</code> disables the pool
+     */
+    public int getEnginePoolSize() {
+        return Math.max(enginePoolSize, 0);
+    }
+
+    /**
+     * @return whether Asciidoctor instances are created when Jenkins starts
+     */
+    public boolean isWarmUpEngines() {
+        return warmUpEngines;
+    }
+
+    /**
+     * @return minutes after which an unused Asciidoctor instance is shut down
+     */
+    public int getEngineIdleMinutes() {
+        return engineIdleMinutes > 0 ? engineIdleMinutes : DEFAULT_ENGINE_IDLE_MINUTES;
+    }
+
+    /**
+     * @return memory, in megabytes, used to cache themed html documentation. <code>0</code> disables the cache
+     */
+    public int getThemedDocsCacheSize() {
+        return Math.max(themedDocsCacheSize, 0);
+    }
+
+    /**
+     * @return disk space, in megabytes, used by documentation rendered on demand. <code>0</code> means no limit
+     */
+    public int getRenderedDocsDiskBudget() {
+        return Math.max(renderedDocsDiskBudget, 0);
+    }
+
+    /**
+     * @return whether published documentation files are linked to their job {@link DocumentationStore} so identical files are stored once
+     */
+    public boolean isDeduplicateDocumentation() {
+        return deduplicateDocumentation;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentRenders(int maxConcurrentRenders) {
+        this.maxConcurrentRenders = maxConcurrentRenders;
+        RenderingScheduler.get().dispatch();
+    }
+
+    @DataBoundSetter
+    public void setRenderQueueCapacity(int renderQueueCapacity) {
+        this.renderQueueCapacity = renderQueueCapacity;
+    }
+
+    @DataBoundSetter
+    public void setEnginePoolSize(int enginePoolSize) {
+        this.enginePoolSize = enginePoolSize;
+    }
+
+    @DataBoundSetter
+    public void setWarmUpEngines(boolean warmUpEngines) {
+        this.warmUpEngines = warmUpEngines;
+    }
+
+    @DataBoundSetter
+    public void setEngineIdleMinutes(int engineIdleMinutes) {
+        this.engineIdleMinutes = engineIdleMinutes;
+    }
+
+    @DataBoundSetter
+    public void setThemedDocsCacheSize(int themedDocsCacheSize) {
+        this.themedDocsCacheSize = themedDocsCacheSize;
+        ThemedDocsCache.get().clear();
+    }
+
+    @DataBoundSetter
+    public void setRenderedDocsDiskBudget(int renderedDocsDiskBudget) {
+        this.renderedDocsDiskBudget = renderedDocsDiskBudget;
+        RenderedDocsCache.get().trim();
+    }
+
+    @DataBoundSetter
+    public void setDeduplicateDocumentation(boolean deduplicateDocumentation) {
+        this.deduplicateDocumentation = deduplicateDocumentation;
+    }
+}
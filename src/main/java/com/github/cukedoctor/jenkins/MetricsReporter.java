@@ -0,0 +1,59 @@
+package com.github.cukedoctor.jenkins;
+
+import com.codahale.metrics.MetricRegistry;
+import hudson.PluginWrapper;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes {@link PublishMetrics} through the metrics plugin: phase durations as timers and phase sizes and counts as
+ * histograms, named <code>cucumber-living-documentation.&lt;phase&gt;.duration|bytes|count</code>.
+ * <p>
+ * The metrics plugin is an optional dependency, nothing is published when it is not installed.
+ */
+final class MetricsReporter {
+
+    private static final Logger LOG = Logger.getLogger(MetricsReporter.class.getName());
+
+    private static final String PREFIX = CukedoctorBaseAction.BASE_URL + ".";
+
+    private MetricsReporter() {
+    }
+
+    static void report(PublishMetrics metrics) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        PluginWrapper plugin = jenkins != null ? jenkins.getPluginManager().getPlugin("metrics") : null;
+        if (plugin == null || !plugin.isActive()) {
+            return;
+        }
+        try {
+            MetricsApi.report(metrics);
+        } catch (LinkageError | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not publish living documentation metrics.", e);
+        }
+    }
+
+    /**
+     * Only loaded when the metrics plugin is installed.
+     */
+    private static final class MetricsApi {
+
+        static void report(PublishMetrics metrics) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            for (PublishMetrics.Phase phase : metrics.getPhases()) {
+                String name = PREFIX + phase.getMetricName();
+                registry.timer(name + ".duration").update(phase.getDurationMillis(), TimeUnit.MILLISECONDS);
+                if (phase.getBytes() != PublishMetrics.UNKNOWN) {
+                    registry.histogram(name + ".bytes").update(phase.getBytes());
+                }
+                if (phase.getCount() != PublishMetrics.UNKNOWN) {
+                    registry.histogram(name + ".count").update(phase.getCount());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches and parses cucumber json files on the node where the build ran so only the
+ * parsed features are sent back to the master instead of the (possibly huge) json files.
+ * Features are parsed one at a time without their embeddings, see {@link StreamingFeatureParser}.
+ * <p>
+ * Customization files are found in the same workspace walk, see {@link InputDiscovery}.
+ * <p>
+ * When documentation is rendered on the node json files are only discovered and digested here, they are parsed once
+ * by {@link RenderDocumentationCallable}.
+ */
+class ParseFeaturesCallable extends MasterToSlaveFileCallable<ParsedFeatures> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean parseFeatures;
+
+    private final String attachmentsDir;
+
+    private final String workspace;
+
+    private final String jsonIncludes;
+
+    private final String excludes;
+
+    private final String customizationFiles;
+
+    /**
+     * @param parseFeatures      whether features are parsed and sent back, <code>false</code> when documentation is rendered on the node
+     * @param attachmentsDir     directory, on the node, to extract embeddings to or <code>null</code> to drop them
+     * @param workspace          workspace, on the node, to search customization files in
+     * @param jsonIncludes       patterns of cucumber json files, see {@link InputDiscovery#discover(File, File, String, String, String)}
+     * @param excludes           patterns of files and directories to skip
+     * @param customizationFiles paths or patterns of customization files
+     */
+    ParseFeaturesCallable(boolean parseFeatures, String attachmentsDir, String workspace, String jsonIncludes, String excludes, String customizationFiles) {
+        this.parseFeatures = parseFeatures;
+        this.attachmentsDir = attachmentsDir;
+        this.workspace = workspace;
+        this.jsonIncludes = jsonIncludes;
+        this.excludes = excludes;
+        this.customizationFiles = customizationFiles;
+    }
+
+    @Override
+    public ParsedFeatures invoke(File featuresDir, VirtualChannel channel) throws IOException, InterruptedException {
+        if (!featuresDir.exists()) {
+            return new ParsedFeatures(new ArrayList<>(), 0, null, new ArrayList<>(), 0, InputDiscovery.empty());
+        }
+        InputDiscovery inputs = InputDiscovery.discover(new File(workspace), featuresDir, jsonIncludes, excludes, customizationFiles);
+        String[] jsonFiles = inputs.getJsonFiles().toArray(new String[0]);
+        long jsonBytes = 0;
+        for (String jsonFile : jsonFiles) {
+            jsonBytes += new File(featuresDir, jsonFile).length();
+        }
+        String jsonDigest = DocumentationFingerprint.digestFiles(featuresDir, jsonFiles);
+        if (!parseFeatures) {
+            return new ParsedFeatures(new ArrayList<>(), ParsedFeatures.NOT_PARSED, jsonDigest, new ArrayList<>(), jsonBytes, inputs);
+        }
+        StreamingFeatureParser parser = new StreamingFeatureParser(attachmentsDir != null ? new File(attachmentsDir) : null);
+        List<Feature> features = parser.parse(featuresDir, jsonFiles);
+        return new ParsedFeatures(new ArrayList<>(features), features.size(), jsonDigest, new ArrayList<>(parser.getAttachments()), jsonBytes, inputs);
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Result of parsing cucumber json files on the node where the build ran.
+ */
+class ParsedFeatures implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * feature count of json files which were not parsed, see {@link #isParsed()}
+     */
+    static final int NOT_PARSED = -1;
+
+    private final List<Feature> features;
+
+    private final int featureCount;
+
+    private final String jsonDigest;
+
+    private final List<FeatureAttachment> attachments;
+
+    private final long jsonBytes;
+
+    private final InputDiscovery inputs;
+
+    ParsedFeatures(List<Feature> features, int featureCount, String jsonDigest, List<FeatureAttachment> attachments, long jsonBytes, InputDiscovery inputs) {
+        this.features = features;
+        this.featureCount = featureCount;
+        this.jsonDigest = jsonDigest;
+        this.attachments = attachments;
+        this.jsonBytes = jsonBytes;
+        this.inputs = inputs;
+    }
+
+    /**
+     * @return parsed features, empty when json files were not parsed (documentation is rendered on the node)
+     */
+    public List<Feature> getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return number of parsed features, {@link #NOT_PARSED} when json files were not parsed
+     */
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @return whether json files were parsed, they are not when documentation is rendered on the node which parses them itself
+     */
+    public boolean isParsed() {
+        return featureCount != NOT_PARSED;
+    }
+
+    /**
+     * @return sha-256 of the parsed json files (paths and contents), used to detect unchanged test results
+     */
+    public String getJsonDigest() {
+        return jsonDigest;
+    }
+
+    /**
+     * @return embeddings extracted from the features, empty when they were dropped
+     */
+    public List<FeatureAttachment> getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * @return size of the parsed json files
+     */
+    public long getJsonBytes() {
+        return jsonBytes;
+    }
+
+    /**
+     * @return cucumber json files and customization files found on the node
+     */
+    public InputDiscovery getInputs() {
+        return inputs;
+    }
+}
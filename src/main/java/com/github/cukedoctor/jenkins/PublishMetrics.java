@@ -0,0 +1,127 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.Functions;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Duration and size of each phase of a documentation publish (parsing, copies, AsciiDoc generation, rendering...).
+ * <p>
+ * It is printed as a summary in the build log, kept on {@link CukedoctorBuildAction} and published through the metrics
+ * plugin when it is installed, see {@link MetricsReporter}.
+ */
+public final class PublishMetrics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * size or count not measured
+     */
+    public static final long UNKNOWN = -1;
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * @param bytes size of the data the phase read or wrote, {@link #UNKNOWN} if not measured
+     * @param count number of items (features, files...) the phase handled, {@link #UNKNOWN} if not measured
+     */
+    synchronized void record(String name, long durationMillis, long bytes, long count) {
+        phases.add(new Phase(name, durationMillis, bytes, count));
+    }
+
+    /**
+     * @return recorded phases, in the order they ran
+     */
+    public synchronized List<Phase> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+
+    /**
+     * @return one line per phase, e.g. <code>parse features: 1200 ms, 42 feature(s), 3.5 MB</code>
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder("Documentation publish phases:");
+        for (Phase phase : phases) {
+            summary.append("\n  ").append(phase);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * @return size of the file or of all files under the directory, {@link #UNKNOWN} if it does not exist
+     */
+    static long sizeOf(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            return UNKNOWN;
+        }
+        long size = 0;
+        for (File child : children) {
+            size += Math.max(sizeOf(child), 0);
+        }
+        return size;
+    }
+
+    public static final class Phase implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        private final long durationMillis;
+
+        private final long bytes;
+
+        private final long count;
+
+        private Phase(String name, long durationMillis, long bytes, long count) {
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.bytes = bytes;
+            this.count = count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return phase name as a metric name part, e.g. <code>render-pdf</code>
+         */
+        String getMetricName() {
+            return name.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name).append(": ").append(durationMillis).append(" ms");
+            if (count != UNKNOWN) {
+                text.append(", ").append(count).append(" item(s)");
+            }
+            if (bytes != UNKNOWN) {
+                text.append(", ").append(Functions.humanReadableByteSize(bytes));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.cukedoctor.jenkins;
+
+import org.asciidoctor.Asciidoctor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lets a documentation render be aborted by the thread waiting for it, e.g. when it times out.
+ * <p>
+ * The phase the render is in is tracked so it can be reported, and Asciidoctor instances used by the render are shut
+ * down on abort as interrupting the rendering thread does not stop a running conversion. Instances shut down this way
+ * are not given back to their owner, see {@link #release(Asciidoctor)}.
+ * <p>
+ * Phases are timed, see {@link #getDurations()}.
+ */
+final class RenderControl {
+
+    private static final Logger LOG = Logger.getLogger(RenderControl.class.getName());
+
+    static final String QUEUED = "waiting in render queue";
+
+    static final String PAGES = "generating and rendering pages";
+
+    private final Set<Asciidoctor> engines = new LinkedHashSet<>();
+
+    private volatile String phase = QUEUED;
+
+    private long phaseStart = System.currentTimeMillis();
+
+    /**
+     * duration, in milliseconds, of finished phases
+     */
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+
+    private volatile boolean aborted;
+
+    static String generating(String backend) {
+        return "generating " + backend + " AsciiDoc";
+    }
+
+    static String rendering(String backend) {
+        return "rendering " + backend;
+    }
+
+    String getPhase() {
+        return phase;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @param phase what the render is about to do, e.g. <code>rendering pdf</code>
+     * @throws InterruptedException if the render was aborted or its thread interrupted
+     */
+    void enter(String phase) throws InterruptedException {
+        checkAborted();
+        synchronized (this) {
+            finishPhase();
+            this.phase = phase;
+        }
+    }
+
+    /**
+     * @throws InterruptedException if the render was aborted or its thread interrupted
+     */
+    void checkAborted() throws InterruptedException {
+        if (aborted || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Documentation rendering was aborted while " + phase);
+        }
+    }
+
+    /**
+     * Ends the current phase, called once the render is over.
+     */
+    synchronized void finishPhase() {
+        long now = System.currentTimeMillis();
+        Long duration = durations.get(phase);
+        durations.put(phase, (duration != null ? duration : 0) + now - phaseStart);
+        phaseStart = now;
+    }
+
+    /**
+     * @return duration, in milliseconds, of each finished phase in the order they were entered
+     */
+    synchronized Map<String, Long> getDurations() {
+        return new LinkedHashMap<>(durations);
+    }
+
+    /**
+     * Registers an instance used by the render. If the render was already aborted the instance is shut down right away.
+     *
+     * @throws InterruptedException if the render was aborted
+     */
+    void using(Asciidoctor asciidoctor) throws InterruptedException {
+        synchronized (this) {
+            if (!aborted) {
+                engines.add(asciidoctor);
+                return;
+            }
+        }
+        shutdown(asciidoctor);
+        throw new InterruptedException("Documentation rendering was aborted while " + phase);
+    }
+
+    /**
+     * Unregisters an instance the render does not use anymore.
+     *
+     * @return <code>true</code> if the caller still owns the instance, <code>false</code> if it was shut down because the render was aborted
+     */
+    synchronized boolean release(Asciidoctor asciidoctor) {
+        return engines.remove(asciidoctor);
+    }
+
+    /**
+     * Aborts the render: next phase will not start and instances in use are shut down, freeing their memory.
+     */
+    void abort() {
+        List<Asciidoctor> inUse;
+        synchronized (this) {
+            aborted = true;
+            inUse = new ArrayList<>(engines);
+            engines.clear();
+        }
+        for (Asciidoctor asciidoctor : inUse) {
+            shutdown(asciidoctor);
+        }
+    }
+
+    private static void shutdown(Asciidoctor asciidoctor) {
+        try {
+            asciidoctor.shutdown();
+        } catch (RuntimeException e) {
+            LOG.log(Level.FINE, "Could not shutdown Asciidoctor instance of an aborted render.", e);
+        }
+    }
+}
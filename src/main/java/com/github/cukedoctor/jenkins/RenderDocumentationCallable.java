@@ -0,0 +1,98 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.config.CukedoctorConfig;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.asciidoctor.Asciidoctor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses features and renders the documentation on the node which ran the build, into the directory the callable is invoked on.
+ * This is the only parse of the json files when rendering on the node, {@link ParseFeaturesCallable} only discovers and digests them.
+ * Only the rendered documentation has to be copied back to master.
+ */
+class RenderDocumentationCallable extends MasterToSlaveFileCallable<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DocumentationGenerator generator;
+
+    private final String featuresDir;
+
+    private final List<String> jsonFiles;
+
+    /**
+     * @param featuresDir directory, on the node, with cucumber json files
+     * @param jsonFiles   cucumber json files to parse, relative to <code>featuresDir</code>, see {@link InputDiscovery}
+     */
+    RenderDocumentationCallable(DocumentationGenerator generator, String featuresDir, List<String> jsonFiles) {
+        this.generator = generator;
+        this.featuresDir = featuresDir;
+        this.jsonFiles = new ArrayList<>(jsonFiles);
+    }
+
+    /**
+     * @return number of features found
+     */
+    @Override
+    public Integer invoke(File docsDir, VirtualChannel channel) throws IOException, InterruptedException {
+        final File jsonDir = new File(featuresDir);
+        if (!jsonDir.exists()) {
+            return 0;
+        }
+        final StreamingFeatureParser parser = new StreamingFeatureParser(new File(docsDir, FeatureAttachment.ATTACHMENTS_DIR));
+        final List<Feature> features = parser.parse(jsonDir, jsonFiles.toArray(new String[0]));
+        if (features.isEmpty()) {
+            return 0;
+        }
+        final CukedoctorConfig cukedoctorConfig = generator.createCukedoctorConfig(docsDir.getAbsolutePath());
+        //aborted when master cancels the rendering (timeout or build abort), which interrupts this thread
+        final RenderControl control = new RenderControl();
+        if (generator.isMultiPage()) {
+            generator.renderPages(features, cukedoctorConfig, docsDir, parser.getAttachments(), false, control);
+            return features.size();
+        }
+        final List<String> backends = generator.getBackends();
+        final ExecutorService pool = Executors.newFixedThreadPool(backends.size());
+        try {
+            List<Future<Void>> renders = new ArrayList<>();
+            for (final String backend : backends) {
+                renders.add(pool.submit(() -> {
+                    control.enter(RenderControl.generating(backend));
+                    File adocFile = DocumentationGenerator.generateAdoc(features, generator.createDocumentAttributes(backend), cukedoctorConfig, generator.getAdocPath(docsDir, backend), parser.getAttachments());
+                    Asciidoctor asciidoctor = DocumentationGenerator.createAsciidoctor(!DocumentationGenerator.isPdf(backend));
+                    control.using(asciidoctor);
+                    try {
+                        control.enter(RenderControl.rendering(backend));
+                        DocumentationGenerator.render(asciidoctor, adocFile, backend);
+                    } finally {
+                        if (control.release(asciidoctor)) {
+                            asciidoctor.shutdown();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> render : renders) {
+                render.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not render documentation: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            control.abort();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+        return features.size();
+    }
+}
@@ -0,0 +1,274 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin wide disk cache of documentation rendered on demand, see {@link CukedoctorPublisher#isRenderOnDemand()}.
+ * <p>
+ * Builds publishing documentation on demand only store the generated AsciiDoc, a format is rendered (through the
+ * {@link RenderingScheduler}) the first time it is viewed. Concurrent views of a documentation being rendered wait for
+ * the same render. Rendered files of all jobs share a disk budget, {@link LivingDocumentationConfiguration#getRenderedDocsDiskBudget()},
+ * least recently viewed ones are deleted when it is exceeded and rendered again on next view.
+ * <p>
+ * Rendered files and their size are saved in <code>cucumber-living-documentation-rendered.xml</code> in Jenkins home
+ * so the budget survives restarts.
+ */
+final class RenderedDocsCache {
+
+    private static final Logger LOG = Logger.getLogger(RenderedDocsCache.class.getName());
+
+    private static final RenderedDocsCache INSTANCE = new RenderedDocsCache();
+
+    private static final String FILE_NAME = CukedoctorBaseAction.BASE_URL + "-rendered.xml";
+
+    /**
+     * rendered file path to its size (with its compressed variants), least recently viewed first. Loaded on first use
+     */
+    private LinkedHashMap<String, Long> entries;
+
+    private long size;
+
+    /**
+     * renders in progress by rendered file path
+     */
+    private final Map<String, RenderingScheduler.RenderTask<Void>> renders = new HashMap<>();
+
+    private RenderedDocsCache() {
+    }
+
+    static RenderedDocsCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Renders the adoc file unless it is already rendered, waiting for the rendering.
+     *
+     * @param jobName job which the documentation belongs to, used for fair ordering in the render queue
+     * @param timeout rendering timeout in minutes, time waiting in the render queue does not count
+     * @throws IOException if the documentation could not be rendered in time
+     */
+    void render(String jobName, File adocFile, String backend, int timeout) throws IOException, InterruptedException {
+        final File renderedFile = DocumentationGenerator.getRenderedFile(adocFile, backend);
+        final String key = renderedFile.getAbsolutePath();
+        RenderingScheduler.RenderTask<Void> render;
+        RenderControl control = null; //only the request which submitted the render controls it
+        synchronized (this) {
+            render = renders.get(key);
+            if (render == null) {
+                if (renderedFile.isFile() && renderedFile.lastModified() >= adocFile.lastModified()) {
+                    viewed(renderedFile);
+                    return;
+                }
+                if (!adocFile.isFile()) {
+                    throw new IOException("Documentation source " + adocFile.getName() + " not found.");
+                }
+                control = new RenderControl();
+                try {
+                    render = RenderingScheduler.get().submit(jobName, backend, render(adocFile, backend, renderedFile, control));
+                } catch (RejectedExecutionException e) {
+                    throw new IOException(e.getMessage() + " Try again later.", e);
+                }
+                renders.put(key, render);
+            }
+        }
+        try {
+            render.await(timeout, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            if (control != null) {
+                render.cancel(true);
+                control.abort();
+            }
+            throw new IOException(String.format("%s rendering timed out after %d minute(s).", backend, timeout));
+        } catch (CancellationException e) {
+            throw new IOException(backend + " rendering was aborted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not render documentation: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (control != null) {
+                synchronized (this) {
+                    renders.remove(key);
+                }
+            }
+        }
+    }
+
+    private Callable<Void> render(final File adocFile, final String backend, final File renderedFile, final RenderControl control) {
+        return () -> {
+            try {
+                DocumentationGenerator.renderPooled(adocFile, backend, renderedFile, control);
+                if (!DocumentationGenerator.isPdf(backend)) {
+                    DocsRenderer.compress(renderedFile, DocsRenderer.DEFAULT_THEME);
+                }
+                rendered(renderedFile);
+                return null;
+            } catch (RuntimeException e) {
+                if (control.isAborted()) {
+                    throw new InterruptedException("Documentation rendering was aborted while " + control.getPhase());
+                }
+                throw e;
+            } finally {
+                control.finishPhase();
+            }
+        };
+    }
+
+    private synchronized void viewed(File renderedFile) {
+        load();
+        if (entries.get(renderedFile.getAbsolutePath()) == null) {
+            rendered(renderedFile); //rendered before it was tracked, e.g. index lost
+        }
+    }
+
+    private synchronized void rendered(File renderedFile) {
+        load();
+        long renderedSize = 0;
+        for (File file : getRenderedFiles(renderedFile)) {
+            renderedSize += file.length();
+        }
+        Long previous = entries.remove(renderedFile.getAbsolutePath());
+        size += renderedSize - (previous != null ? previous : 0);
+        entries.put(renderedFile.getAbsolutePath(), renderedSize);
+        removeDeleted();
+        trim();
+    }
+
+    /**
+     * Deletes least recently viewed rendered files until the cache fits in the disk budget. The most recent one is
+     * always kept so it can be served.
+     */
+    synchronized void trim() {
+        load();
+        long budget = getBudget();
+        for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); budget > 0 && size > budget && entries.size() > 1 && it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            size -= entry.getValue();
+            for (File file : getRenderedFiles(new File(entry.getKey()))) {
+                if (!file.delete() && file.exists()) {
+                    LOG.log(Level.FINE, "Could not delete rendered documentation {0}", file);
+                }
+            }
+        }
+        save();
+    }
+
+    synchronized long size() {
+        load();
+        return size;
+    }
+
+    /**
+     * Forgets rendered files deleted with their build.
+     */
+    private void removeDeleted() {
+        for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!new File(entry.getKey()).exists()) {
+                it.remove();
+                size -= entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * @return rendered file and its compressed themed variants, see {@link DocsRenderer#compress(File, String)}
+     */
+    private static List<File> getRenderedFiles(File renderedFile) {
+        List<File> files = new ArrayList<>();
+        files.add(renderedFile);
+        final String prefix = renderedFile.getName().replaceAll("\\.html$", "") + "-";
+        File[] compressed = renderedFile.getParentFile().listFiles((dir, name) -> renderedFile.getName().endsWith(".html")
+                && name.startsWith(prefix) && name.endsWith(".html.gz"));
+        if (compressed != null) {
+            for (File file : compressed) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        size = 0;
+        XmlFile xmlFile = getXmlFile();
+        if (xmlFile == null || !xmlFile.exists()) {
+            return;
+        }
+        try {
+            for (Entry entry : ((Index) xmlFile.read()).entries) {
+                entries.put(entry.path, entry.size);
+                size += entry.size;
+            }
+        } catch (IOException | ClassCastException e) {
+            LOG.log(Level.WARNING, "Could not read rendered documentation index, on demand renders are tracked from now on.", e);
+        }
+    }
+
+    private void save() {
+        XmlFile xmlFile = getXmlFile();
+        if (xmlFile == null) {
+            return;
+        }
+        Index index = new Index();
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            index.entries.add(new Entry(entry.getKey(), entry.getValue()));
+        }
+        try {
+            xmlFile.write(index);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save rendered documentation index.", e);
+        }
+    }
+
+    private static XmlFile getXmlFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null ? new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), FILE_NAME)) : null;
+    }
+
+    private static long getBudget() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        int megabytes = configuration != null ? configuration.getRenderedDocsDiskBudget() : LivingDocumentationConfiguration.DEFAULT_RENDERED_DOCS_DISK_BUDGET;
+        return megabytes * 1024L * 1024L;
+    }
+
+    /**
+     * persisted form of the cache, least recently viewed first
+     */
+    private static final class Index {
+
+        private final List<Entry> entries = new ArrayList<>();
+    }
+
+    private static final class Entry {
+
+        private final String path;
+
+        private final long size;
+
+        private Entry(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plugin wide scheduler for documentation rendering on master.
+ * <p>
+ * At most {@link LivingDocumentationConfiguration#getMaxConcurrentRenders()} renders run at the same time, the others wait
+ * in a bounded queue which is served round robin across jobs so a job publishing a lot of documentation does not starve the others.
+ * <p>
+ * It also runs publishes which render in background, once their build step returned, see {@link #runInBackground(String, Runnable)}.
+ */
+final class RenderingScheduler {
+
+    private static final RenderingScheduler INSTANCE = new RenderingScheduler();
+
+    /**
+     * how often a render waiting in the queue is checked for start, in milliseconds
+     */
+    private static final long QUEUED_POLL_MILLIS = 1000;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "Living documentation renderer"));
+
+    /**
+     * renders waiting for a free slot per job, iteration order is the round robin order
+     */
+    private final LinkedHashMap<String, Deque<RenderTask<?>>> queues = new LinkedHashMap<>();
+
+    private int queued;
+
+    private int running;
+
+    /**
+     * builds (externalizable ids) whose documentation is rendered in background
+     */
+    private final Set<String> backgroundPublishes = new HashSet<>();
+
+    private RenderingScheduler() {
+    }
+
+    static RenderingScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param jobName     job which the render belongs to, used for fair ordering across jobs
+     * @param description what is being rendered, e.g. the backend
+     * @throws RejectedExecutionException if the queue is full
+     */
+    <T> RenderTask<T> submit(String jobName, String description, Callable<T> callable) {
+        RenderTask<T> task;
+        synchronized (this) {
+            int capacity = getRenderQueueCapacity();
+            if (queued >= capacity) {
+                throw new RejectedExecutionException(String.format("Documentation render queue is full (%d renders waiting, capacity is %d).", queued, capacity));
+            }
+            task = new RenderTask<>(jobName, description, callable, queued, running);
+            Deque<RenderTask<?>> jobQueue = queues.get(jobName);
+            if (jobQueue == null) {
+                jobQueue = new ArrayDeque<>();
+                queues.put(jobName, jobQueue);
+            }
+            jobQueue.add(task);
+            queued++;
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Starts waiting renders while there are free slots, taking one render of each job in turn.
+     */
+    synchronized void dispatch() {
+        int maxConcurrentRenders = getMaxConcurrentRenders();
+        while (running < maxConcurrentRenders && !queues.isEmpty()) {
+            Iterator<Map.Entry<String, Deque<RenderTask<?>>>> jobs = queues.entrySet().iterator();
+            Map.Entry<String, Deque<RenderTask<?>>> job = jobs.next();
+            jobs.remove();
+            RenderTask<?> task = job.getValue().poll();
+            if (!job.getValue().isEmpty()) {
+                queues.put(job.getKey(), job.getValue()); //moves the job to the end of the line
+            }
+            queued--;
+            if (task.isCancelled()) {
+                continue;
+            }
+            running++;
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Runs the end of a publish (waiting for its renders, compressing...) on a background thread. Its renders still go
+     * through the render queue.
+     *
+     * @param buildId externalizable id of the build which publishes the documentation
+     */
+    void runInBackground(final String buildId, final Runnable publish) {
+        synchronized (this) {
+            backgroundPublishes.add(buildId);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    publish.run();
+                } finally {
+                    synchronized (RenderingScheduler.this) {
+                        backgroundPublishes.remove(buildId);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                backgroundPublishes.remove(buildId);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether documentation of given build is being rendered in background
+     */
+    synchronized boolean isRenderingInBackground(String buildId) {
+        return backgroundPublishes.contains(buildId);
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    private synchronized void finished() {
+        running--;
+    }
+
+    /**
+     * Removes a cancelled render from its job queue so it does not count against the queue capacity until dispatched.
+     */
+    private synchronized void removeQueued(RenderTask<?> task) {
+        Deque<RenderTask<?>> jobQueue = queues.get(task.jobName);
+        if (jobQueue != null && jobQueue.remove(task)) {
+            queued--;
+            if (jobQueue.isEmpty()) {
+                queues.remove(task.jobName);
+            }
+        }
+    }
+
+    private static int getMaxConcurrentRenders() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        return configuration != null ? configuration.getMaxConcurrentRenders() : LivingDocumentationConfiguration.DEFAULT_MAX_CONCURRENT_RENDERS;
+    }
+
+    private static int getRenderQueueCapacity() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        return configuration != null ? configuration.getRenderQueueCapacity() : LivingDocumentationConfiguration.DEFAULT_RENDER_QUEUE_CAPACITY;
+    }
+
+    /**
+     * A render submitted to the scheduler, keeps track of queue metrics shown in the build log.
+     */
+    final class RenderTask<T> extends FutureTask<T> {
+
+        private final String jobName;
+
+        private final String description;
+
+        private final int queuedAhead;
+
+        private final int runningOnSubmit;
+
+        private final long submittedAt = System.currentTimeMillis();
+
+        private volatile long startedAt;
+
+        private volatile long finishedAt;
+
+        private RenderTask(String jobName, String description, Callable<T> callable, int queuedAhead, int runningOnSubmit) {
+            super(callable);
+            this.jobName = jobName;
+            this.description = description;
+            this.queuedAhead = queuedAhead;
+            this.runningOnSubmit = runningOnSubmit;
+        }
+
+        @Override
+        public void run() {
+            startedAt = System.currentTimeMillis();
+            try {
+                super.run();
+            } finally {
+                finishedAt = System.currentTimeMillis();
+                finished();
+                dispatch();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                removeQueued(this);
+            }
+            return cancelled;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        /**
+         * Waits for the render to finish. The timeout runs from the time the render started: time spent waiting for a
+         * free slot in the queue does not count.
+         *
+         * @throws TimeoutException if the render ran for longer than the timeout
+         */
+        T await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            final long timeoutMillis = unit.toMillis(timeout);
+            while (true) {
+                final long started = startedAt;
+                final long wait = started == 0 ? QUEUED_POLL_MILLIS : Math.max(started + timeoutMillis - System.currentTimeMillis(), 0);
+                try {
+                    return get(wait, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (started != 0) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return how long the render waited for a free slot, in milliseconds
+         */
+        long getWaitTime() {
+            return (startedAt > 0 ? startedAt : System.currentTimeMillis()) - submittedAt;
+        }
+
+        /**
+         * @return how long the render took, in milliseconds
+         */
+        long getRenderTime() {
+            if (startedAt == 0) {
+                return 0;
+            }
+            return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+        }
+
+        String getQueueSummary() {
+            return String.format("%s rendering queued with %d render(s) waiting and %d running (max %d).", description, queuedAhead, runningOnSubmit, getMaxConcurrentRenders());
+        }
+
+        String getTimingSummary() {
+            return String.format("%s rendering waited %d ms in queue and took %d ms.", description, getWaitTime(), getRenderTime());
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.parser.FeatureParser;
+import hudson.Util;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses cucumber json files one feature at a time instead of loading whole files.
+ * <p>
+ * Each feature of a report is copied, without its <code>embeddings</code> (screenshots and other attachments which make
+ * most of big reports), to its own temporary file which is then parsed by cukedoctor. Memory needed to parse a report
+ * depends on its biggest feature instead of the report size.
+ * <p>
+ * When an attachments directory is given, embeddings are extracted there as {@link FeatureAttachment}s instead of being dropped.
+ */
+final class StreamingFeatureParser {
+
+    private static final Logger LOG = Logger.getLogger(StreamingFeatureParser.class.getName());
+
+    private static final String EMBEDDINGS = "embeddings";
+
+    private final File attachmentsDir;
+
+    private final List<FeatureAttachment> attachments = new ArrayList<>();
+
+    /**
+     * json objects being copied, innermost first
+     */
+    private final Deque<JsonObjectFrame> frames = new ArrayDeque<>();
+
+    private File tempDir;
+
+    private int embeddings;
+
+    /**
+     * @param attachmentsDir directory to extract embeddings to, <code>null</code> to drop them
+     */
+    StreamingFeatureParser(File attachmentsDir) {
+        this.attachmentsDir = attachmentsDir;
+    }
+
+    /**
+     * @param baseDir   directory json files are relative to
+     * @param jsonFiles json files to parse, files which are not cucumber reports are skipped
+     * @return parsed features, in json files (sorted by path) and features order
+     */
+    List<Feature> parse(File baseDir, String[] jsonFiles) throws IOException {
+        String[] sortedFiles = jsonFiles.clone();
+        Arrays.sort(sortedFiles);
+        tempDir = Files.createTempDirectory("living-documentation").toFile();
+        try {
+            List<Feature> features = new ArrayList<>();
+            for (String jsonFile : sortedFiles) {
+                parseFile(new File(baseDir, jsonFile), features);
+            }
+            if (embeddings > 0) {
+                LOG.log(Level.FINE, "{0} {1} embeddings of cucumber json files in {2}",
+                        new Object[]{attachmentsDir != null ? "Extracted" : "Dropped", embeddings, baseDir});
+            }
+            return features;
+        } finally {
+            Util.deleteRecursive(tempDir);
+        }
+    }
+
+    /**
+     * @return attachments extracted by {@link #parse(File, String[])}, in features order
+     */
+    List<FeatureAttachment> getAttachments() {
+        return attachments;
+    }
+
+    private void parseFile(File jsonFile, List<Feature> features) throws IOException {
+        try (PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(new FileInputStream(jsonFile)), 3)) {
+            skipByteOrderMark(in);
+            if (next(in) != '[') {
+                return; //not a cucumber report
+            }
+            File featureFile = new File(tempDir, "feature.json");
+            while (true) {
+                int c = next(in);
+                if (c == ']' || c == -1) {
+                    return;
+                }
+                if (c == ',') {
+                    continue;
+                }
+                in.unread(c);
+                frames.clear();
+                final int featureAttachments = attachments.size();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(featureFile))) {
+                    out.write('[');
+                    copyValue(in, out);
+                    out.write(']');
+                }
+                List<Feature> parsed = FeatureParser.findAndParse(tempDir.getAbsolutePath());
+                for (FeatureAttachment attachment : attachments.subList(featureAttachments, attachments.size())) {
+                    attachment.setFeature(parsed.isEmpty() ? -1 : features.size());
+                }
+                features.addAll(parsed);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not parse cucumber json file " + jsonFile + ", skipping it.", e);
+        }
+    }
+
+    /**
+     * Copies the next json value, whitespaces are dropped. Nothing is written when <code>out</code> is a {@link NullOutputStream}.
+     */
+    private void copyValue(PushbackInputStream in, OutputStream out) throws IOException {
+        int c = next(in);
+        switch (c) {
+            case '{':
+                copyObject(in, out);
+                break;
+            case '[':
+                copyArray(in, out);
+                break;
+            case '"':
+                copyString(in, out);
+                break;
+            case -1:
+                throw new IOException("Unexpected end of json file");
+            default:
+                while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) { //number, boolean or null
+                    out.write(c);
+                    c = in.read();
+                }
+                if (c != -1) {
+                    in.unread(c);
+                }
+        }
+    }
+
+    private void copyObject(PushbackInputStream in, OutputStream out) throws IOException {
+        out.write('{');
+        JsonObjectFrame frame = new JsonObjectFrame();
+        frames.push(frame);
+        boolean firstMember = true;
+        while (true) {
+            int c = next(in);
+            if (c == '}') {
+                out.write('}');
+                frames.pop();
+                frame.close();
+                return;
+            }
+            if (c == ',') {
+                continue;
+            }
+            if (c != '"') {
+                throw new IOException("Expected a json object key but found '" + (char) c + "'");
+            }
+            String key = readString(in);
+            if (next(in) != ':') {
+                throw new IOException("Expected ':' after json object key " + key);
+            }
+            if (key.equals(EMBEDDINGS)) {
+                if (attachmentsDir != null) {
+                    extractEmbeddings(in, frame);
+                } else {
+                    copyValue(in, NullOutputStream.NULL_OUTPUT_STREAM);
+                }
+                continue;
+            }
+            if (!firstMember) {
+                out.write(',');
+            }
+            writeString(out, key);
+            out.write(':');
+            c = nextValue(in);
+            if (c == '"' && key.equals("name")) {
+                frame.name = readString(in);
+                writeString(out, frame.name);
+            } else {
+                in.unread(c);
+                copyValue(in, out);
+            }
+            firstMember = false;
+        }
+    }
+
+    private void copyArray(PushbackInputStream in, OutputStream out) throws IOException {
+        out.write('[');
+        boolean firstElement = true;
+        while (true) {
+            int c = next(in);
+            if (c == ']') {
+                out.write(']');
+                return;
+            }
+            if (c == ',') {
+                continue;
+            }
+            if (c == -1) {
+                throw new IOException("Unexpected end of json file");
+            }
+            in.unread(c);
+            if (!firstElement) {
+                out.write(',');
+            }
+            copyValue(in, out);
+            firstElement = false;
+        }
+    }
+
+    /**
+     * Extracts an array of embeddings (<code>{"mime_type": "image/png", "data": "base64 content"}</code>).
+     */
+    private void extractEmbeddings(PushbackInputStream in, JsonObjectFrame frame) throws IOException {
+        int c = nextValue(in);
+        if (c != '[') {
+            in.unread(c);
+            copyValue(in, NullOutputStream.NULL_OUTPUT_STREAM);
+            return;
+        }
+        while (true) {
+            c = next(in);
+            if (c == ']') {
+                return;
+            }
+            if (c == ',') {
+                continue;
+            }
+            if (c == -1) {
+                throw new IOException("Unexpected end of json file");
+            }
+            if (c == '{') {
+                extractEmbedding(in, frame);
+            } else {
+                in.unread(c);
+                copyValue(in, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        }
+    }
+
+    private void extractEmbedding(PushbackInputStream in, JsonObjectFrame frame) throws IOException {
+        File data = new File(tempDir, "embedding");
+        boolean hasData = false;
+        String mimeType = null;
+        while (true) {
+            int c = next(in);
+            if (c == '}') {
+                break;
+            }
+            if (c == ',') {
+                continue;
+            }
+            if (c != '"') {
+                throw new IOException("Expected a json object key but found '" + (char) c + "'");
+            }
+            String key = readString(in);
+            if (next(in) != ':') {
+                throw new IOException("Expected ':' after json object key " + key);
+            }
+            c = nextValue(in);
+            if (c == '"' && key.equals("data")) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(data))) {
+                    unescapeString(in, out);
+                }
+                hasData = true;
+            } else if (c == '"' && key.equals("mime_type")) {
+                mimeType = readString(in);
+            } else {
+                in.unread(c);
+                copyValue(in, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        }
+        if (hasData) {
+            frame.attachments.add(store(data, mimeType));
+            embeddings++;
+        }
+    }
+
+    /**
+     * Moves extracted data, base64 decoded when it is base64, to the attachments directory unless the same content is already there.
+     */
+    private FeatureAttachment store(File data, String mimeType) throws IOException {
+        File content = new File(tempDir, "attachment");
+        boolean base64 = isBase64(data);
+        MessageDigest digest = newDigest();
+        try (InputStream is = base64 ? Base64.getMimeDecoder().wrap(new BufferedInputStream(new FileInputStream(data))) : new BufferedInputStream(new FileInputStream(data));
+             OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(content)), digest)) {
+            IOUtils.copy(is, out);
+        }
+        String fileName = Util.toHexString(digest.digest()) + "." + FeatureAttachment.extension(mimeType);
+        File attachment = new File(attachmentsDir, fileName);
+        if (attachment.exists()) {
+            Files.delete(content.toPath());
+        } else {
+            Files.createDirectories(attachmentsDir.toPath());
+            Files.move(content.toPath(), attachment.toPath());
+        }
+        return new FeatureAttachment(fileName, mimeType);
+    }
+
+    private static boolean isBase64(File data) throws IOException {
+        long length = 0;
+        boolean padding = false;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(data))) {
+            int c;
+            while ((c = is.read()) != -1) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                boolean alphabet = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/';
+                if (c == '=') {
+                    padding = true;
+                } else if (!alphabet || padding) {
+                    return false;
+                }
+                length++;
+            }
+        }
+        return length > 0 && length % 4 == 0;
+    }
+
+    /**
+     * Copies a string, including its quotes, the opening quote being already read.
+     */
+    private static void copyString(InputStream in, OutputStream out) throws IOException {
+        out.write('"');
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+            if (c == '\\') {
+                int escaped = in.read();
+                if (escaped == -1) {
+                    break;
+                }
+                out.write(escaped);
+            } else if (c == '"') {
+                return;
+            }
+        }
+        throw new IOException("Unexpected end of json file");
+    }
+
+    /**
+     * Reads a string whose opening quote was already read.
+     */
+    private static String readString(InputStream in) throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        unescapeString(in, value);
+        return value.toString("UTF-8");
+    }
+
+    /**
+     * Writes the unescaped content of a string whose opening quote was already read, the closing quote is consumed.
+     * Characters outside of the basic multilingual plane (e.g. emoji) are escaped as a surrogate pair of unicode escapes,
+     * both halves are encoded together.
+     */
+    private static void unescapeString(InputStream in, OutputStream out) throws IOException {
+        char highSurrogate = 0; //escaped high surrogate waiting for its low surrogate
+        int c;
+        while ((c = in.read()) != -1) {
+            final boolean escape = c == '\\';
+            if (escape) {
+                c = in.read();
+            }
+            if (escape && c == 'u') {
+                char unicode = readUnicodeEscape(in);
+                if (highSurrogate != 0 && Character.isLowSurrogate(unicode)) {
+                    out.write(new String(new char[]{highSurrogate, unicode}).getBytes(StandardCharsets.UTF_8));
+                    highSurrogate = 0;
+                    continue;
+                }
+                writeLoneSurrogate(out, highSurrogate);
+                highSurrogate = 0;
+                if (Character.isHighSurrogate(unicode)) {
+                    highSurrogate = unicode;
+                } else {
+                    out.write(String.valueOf(unicode).getBytes(StandardCharsets.UTF_8));
+                }
+                continue;
+            }
+            writeLoneSurrogate(out, highSurrogate);
+            highSurrogate = 0;
+            if (!escape) {
+                if (c == '"') {
+                    return;
+                }
+                out.write(c);
+                continue;
+            }
+            switch (c) {
+                case 'b':
+                    out.write('\b');
+                    break;
+                case 'f':
+                    out.write('\f');
+                    break;
+                case 'n':
+                    out.write('\n');
+                    break;
+                case 'r':
+                    out.write('\r');
+                    break;
+                case 't':
+                    out.write('\t');
+                    break;
+                case -1:
+                    throw new IOException("Unexpected end of json file");
+                default: //quote, backslash and slash
+                    out.write(c);
+            }
+        }
+        throw new IOException("Unexpected end of json file");
+    }
+
+    /**
+     * Reads the four hexadecimal digits of a unicode escape.
+     */
+    private static char readUnicodeEscape(InputStream in) throws IOException {
+        byte[] hex = new byte[4];
+        if (IOUtils.read(in, hex) != hex.length) {
+            throw new IOException("Unexpected end of json file");
+        }
+        try {
+            return (char) Integer.parseInt(new String(hex, StandardCharsets.US_ASCII), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid json unicode escape \\u" + new String(hex, StandardCharsets.US_ASCII), e);
+        }
+    }
+
+    /**
+     * Writes a high surrogate which is not followed by its low surrogate, as the replacement character like any malformed input.
+     */
+    private static void writeLoneSurrogate(OutputStream out, char highSurrogate) throws IOException {
+        if (highSurrogate != 0) {
+            out.write(String.valueOf(highSurrogate).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        out.write(escaped.append('"').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return next byte which is not a whitespace
+     */
+    private static int next(InputStream in) throws IOException {
+        int c;
+        do {
+            c = in.read();
+        } while (c != -1 && Character.isWhitespace(c));
+        return c;
+    }
+
+    /**
+     * @return first byte of the next value
+     */
+    private static int nextValue(InputStream in) throws IOException {
+        int c = next(in);
+        if (c == -1) {
+            throw new IOException("Unexpected end of json file");
+        }
+        return c;
+    }
+
+    private static void skipByteOrderMark(PushbackInputStream in) throws IOException {
+        byte[] bom = "\uFEFF".getBytes(StandardCharsets.UTF_8);
+        byte[] start = new byte[bom.length];
+        int read = in.read(start);
+        if (read > 0 && !(read == bom.length && Arrays.equals(start, bom))) {
+            in.unread(start, 0, read);
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Name and attachments of a json object being copied. Names of enclosing objects (step, scenario, feature) are
+     * added to attachments when objects are closed, as <code>name</code> may come after <code>embeddings</code>.
+     */
+    private final class JsonObjectFrame {
+
+        private String name;
+
+        private final List<FeatureAttachment> attachments = new ArrayList<>();
+
+        private void close() {
+            for (FeatureAttachment attachment : attachments) {
+                if (name != null && !name.trim().isEmpty()) {
+                    attachment.addParent(name);
+                }
+            }
+            if (frames.isEmpty()) {
+                StreamingFeatureParser.this.attachments.addAll(attachments);
+            } else {
+                frames.peek().attachments.addAll(attachments);
+            }
+        }
+    }
+}
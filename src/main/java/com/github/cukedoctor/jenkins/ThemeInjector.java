@@ -0,0 +1,136 @@
+package com.github.cukedoctor.jenkins;
+
+import hudson.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Applies a theme to html documentation while copying it, without loading the document in memory.
+ * <p>
+ * <code>style</code> elements found before the body are dropped and the theme is inserted right before <code>&lt;/head&gt;</code>
+ * (or <code>&lt;body</code> when there is no head), the rest of the document is copied as is. Scripts and comments
+ * are copied untouched so style tags inside them are left alone.
+ */
+final class ThemeInjector {
+
+    private static final int MAX_TAG_NAME = 16;
+
+    private ThemeInjector() {
+    }
+
+    static void inject(InputStream html, File theme, OutputStream output) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(html), 1);
+        OutputStream out = new BufferedOutputStream(output);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c != '<') {
+                out.write(c);
+                continue;
+            }
+            String tagName = readTagName(in);
+            String tag = tagName.toLowerCase(Locale.ENGLISH);
+            if (tag.equals("style")) {
+                copyUntil(in, null, "</style");
+                copyUntil(in, null, ">");
+            } else if (tag.equals("/head") || tag.equals("body")) {
+                writeTheme(theme, out);
+                write(out, "<" + tagName);
+                IOUtils.copy(in, out);
+                out.flush();
+                return;
+            } else if (tag.equals("script")) {
+                write(out, "<" + tagName);
+                copyUntil(in, out, "</script");
+            } else if (tag.equals("!--")) {
+                write(out, "<" + tagName);
+                copyUntil(in, out, "-->");
+            } else {
+                write(out, "<" + tagName);
+            }
+        }
+        writeTheme(theme, out); //no head nor body
+        out.flush();
+    }
+
+    /**
+     * Reads the tag name following a <code>&lt;</code>, including a leading <code>/</code> or <code>!</code>.
+     * A comment start is read as <code>!--</code> whatever follows it. The first byte which is not part of the name is pushed back.
+     */
+    private static String readTagName(PushbackInputStream in) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c = in.read();
+        if (c == '/') {
+            name.append((char) c);
+            c = in.read();
+        } else if (c == '!') {
+            name.append((char) c);
+            c = in.read();
+            if (c == '-') {
+                name.append((char) c);
+                c = in.read();
+                if (c == '-') {
+                    return name.append((char) c).toString();
+                }
+            }
+        }
+        while (c != -1 && name.length() < MAX_TAG_NAME && Character.isLetterOrDigit(c)) {
+            name.append((char) c);
+            c = in.read();
+        }
+        if (c != -1) {
+            in.unread(c);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Copies bytes up to and including <code>marker</code> (case insensitive), bytes are skipped when <code>out</code> is null.
+     */
+    private static void copyUntil(InputStream in, OutputStream out, String marker) throws IOException {
+        int matched = 0;
+        int c;
+        while (matched < marker.length() && (c = in.read()) != -1) {
+            if (out != null) {
+                out.write(c);
+            }
+            char lower = Character.toLowerCase((char) c);
+            if (lower == marker.charAt(matched)) {
+                matched++;
+            } else {
+                matched = fallback(marker, matched, lower);
+            }
+        }
+    }
+
+    /**
+     * @return length of the longest marker prefix ending at the mismatched char
+     */
+    private static int fallback(String marker, int matched, char c) {
+        String seen = marker.substring(0, matched) + c;
+        for (int length = matched; length > 0; length--) {
+            if (seen.endsWith(marker.substring(0, length))) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeTheme(File theme, OutputStream out) throws IOException {
+        write(out, "<style> ");
+        Files.copy(theme.toPath(), out);
+        write(out, "</style>");
+    }
+
+    private static void write(OutputStream out, String ascii) throws IOException {
+        out.write(ascii.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.cukedoctor.jenkins;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plugin wide cache of themed html documentation, see {@link DocsRenderer}.
+ * <p>
+ * Entries are keyed by documentation file, theme and their modification time so a regenerated documentation or theme
+ * is never served from cache. Least recently used entries are evicted when the cache exceeds
+ * {@link LivingDocumentationConfiguration#getThemedDocsCacheSize()}.
+ * <p>
+ * An entry is filled by a single request: concurrent requests for the same documentation and theme, while it is not
+ * cached yet, are streamed without keeping a copy of the content.
+ */
+final class ThemedDocsCache {
+
+    private static final ThemedDocsCache INSTANCE = new ThemedDocsCache();
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    /**
+     * keys of entries being filled by a request
+     */
+    private final Set<String> fills = new HashSet<>();
+
+    private ThemedDocsCache() {
+    }
+
+    static ThemedDocsCache get() {
+        return INSTANCE;
+    }
+
+    static String key(File docsFile, File themeFile) {
+        return new StringBuilder(docsFile.getAbsolutePath())
+                .append('|').append(docsFile.lastModified())
+                .append('|').append(themeFile.getAbsolutePath())
+                .append('|').append(themeFile.lastModified())
+                .toString();
+    }
+
+    synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return whether the caller fills the entry, in which case it keeps a copy of the content and calls
+     * {@link #finishFill(String, byte[])}. <code>false</code> when the content does not fit in the cache or another request
+     * is filling the entry
+     */
+    synchronized boolean startFill(String key, long contentLength) {
+        return contentLength <= getMaxSize() && !entries.containsKey(key) && fills.add(key);
+    }
+
+    /**
+     * @param content content of the entry, <code>null</code> if it could not be read so another request fills it
+     */
+    synchronized void finishFill(String key, byte[] content) {
+        fills.remove(key);
+        if (content != null) {
+            put(key, content);
+        }
+    }
+
+    /**
+     * Caches given content unless it is bigger than the whole cache.
+     */
+    synchronized void put(String key, byte[] content) {
+        long maxSize = getMaxSize();
+        if (content.length > maxSize) {
+            return;
+        }
+        byte[] previous = entries.put(key, content);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += content.length;
+        for (Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator(); size > maxSize && it.hasNext(); ) {
+            size -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private static long getMaxSize() {
+        LivingDocumentationConfiguration configuration = LivingDocumentationConfiguration.get();
+        int megabytes = configuration != null ? configuration.getThemedDocsCacheSize() : LivingDocumentationConfiguration.DEFAULT_THEMED_DOCS_CACHE_SIZE;
+        return megabytes * 1024L * 1024L;
+    }
+}
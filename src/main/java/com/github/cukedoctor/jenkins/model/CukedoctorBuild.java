@@ -35,4 +35,8 @@ public class CukedoctorBuild implements Serializable {
     public Boolean isPdfDocs() {
         return format.equals(FormatType.PDF) || format.equals(FormatType.ALL);
     }
+
+    public Boolean isMultiPageDocs() {
+        return format.equals(FormatType.MULTI_PAGE);
+    }
 }
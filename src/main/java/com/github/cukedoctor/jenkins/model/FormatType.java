@@ -5,7 +5,7 @@ package com.github.cukedoctor.jenkins.model;
  */
 public enum FormatType {
 
-    HTML("html"), PDF("pdf"), ALL("all");
+    HTML("html"), PDF("pdf"), ALL("all"), MULTI_PAGE("multi-page");
 
     public final String format;
 
@@ -0,0 +1,125 @@
+/*
+ * Documentation history page: builds are fetched page by page from the history endpoint when they scroll into view
+ * and only visible rows are rendered, so long histories are neither fully loaded on the server nor in the browser.
+ */
+document.addEventListener('DOMContentLoaded', function () {
+    var ROW_HEIGHT = 56;
+    var viewport = document.getElementById('docs-history');
+    if (!viewport) {
+        return;
+    }
+    var spacer = viewport.querySelector('.docs-history-spacer');
+    var rows = viewport.querySelector('.docs-history-rows');
+    var empty = document.getElementById('docs-history-empty');
+    var from = document.getElementById('docs-history-from');
+    var to = document.getElementById('docs-history-to');
+    var pageSize = parseInt(viewport.getAttribute('data-page-size'), 10) || 50;
+    var pages = {};
+    var total = 0;
+    var generation = 0;
+
+    function period() {
+        return (from.value ? '&from=' + encodeURIComponent(from.value) : '') + (to.value ? '&to=' + encodeURIComponent(to.value) : '');
+    }
+
+    function load(page) {
+        if (pages[page]) {
+            return;
+        }
+        pages[page] = 'loading';
+        var requestGeneration = generation;
+        var request = new XMLHttpRequest();
+        request.open('GET', 'history?offset=' + page * pageSize + '&size=' + pageSize + period());
+        request.onload = function () {
+            if (requestGeneration !== generation) {
+                return; //period changed meanwhile
+            }
+            if (request.status !== 200) {
+                delete pages[page];
+                return;
+            }
+            var result = JSON.parse(request.responseText);
+            pages[page] = result.builds;
+            total = result.total;
+            render();
+        };
+        request.onerror = function () {
+            delete pages[page];
+        };
+        request.send();
+    }
+
+    function link(build, path, icon, alt, width, height) {
+        var a = document.createElement('a');
+        a.href = '../' + build.number + '/cucumber-living-documentation/' + path;
+        a.target = '_blank';
+        var img = document.createElement('img');
+        img.src = viewport.getAttribute(icon);
+        img.alt = alt;
+        img.width = width;
+        img.height = height;
+        a.appendChild(img);
+        return a;
+    }
+
+    function row(build) {
+        var div = document.createElement('div');
+        div.className = 'docs-history-row build-row single-line';
+        var number = document.createElement('span');
+        if (build) {
+            var b = document.createElement('b');
+            b.textContent = '#' + build.number;
+            number.appendChild(b);
+            number.appendChild(document.createTextNode(' (' + new Date(build.time).toLocaleString() + ')'));
+        } else {
+            number.textContent = '...';
+        }
+        var docs = document.createElement('span');
+        if (build && build.html) {
+            docs.appendChild(link(build, 'docsHtml', 'data-html-icon', 'HTML', 42, 42));
+        }
+        if (build && build.pdf) {
+            docs.appendChild(link(build, 'docsPdf', 'data-pdf-icon', 'PDF', 36, 40));
+        }
+        if (build && build.pages) {
+            docs.appendChild(link(build, 'pages/index.html', 'data-html-icon', 'HTML pages', 42, 42));
+        }
+        div.appendChild(number);
+        div.appendChild(docs);
+        return div;
+    }
+
+    function render() {
+        spacer.style.height = total * ROW_HEIGHT + 'px';
+        empty.style.display = total === 0 && pages[0] !== 'loading' ? '' : 'none';
+        var first = Math.floor(viewport.scrollTop / ROW_HEIGHT);
+        var last = Math.min(total, Math.ceil((viewport.scrollTop + viewport.clientHeight) / ROW_HEIGHT) + 1);
+        var fragment = document.createDocumentFragment();
+        for (var i = first; i < last; i++) {
+            var page = pages[Math.floor(i / pageSize)];
+            if (page instanceof Array) {
+                fragment.appendChild(row(page[i % pageSize]));
+            } else {
+                fragment.appendChild(row(null));
+                load(Math.floor(i / pageSize));
+            }
+        }
+        rows.style.top = first * ROW_HEIGHT + 'px';
+        rows.innerHTML = '';
+        rows.appendChild(fragment);
+    }
+
+    function reload() {
+        generation++;
+        pages = {};
+        total = 0;
+        viewport.scrollTop = 0;
+        load(0);
+    }
+
+    viewport.addEventListener('scroll', render);
+    window.addEventListener('resize', render);
+    from.addEventListener('change', reload);
+    to.addEventListener('change', reload);
+    reload();
+});
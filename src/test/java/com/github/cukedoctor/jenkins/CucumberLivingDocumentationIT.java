@@ -5,16 +5,47 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.SingleFileSCM;
+import org.jvnet.hudson.test.TestBuilder;
 
+import com.github.cukedoctor.api.DocumentAttributes;
+import com.github.cukedoctor.api.model.Feature;
+import com.github.cukedoctor.config.GlobalConfig;
+import com.github.cukedoctor.jenkins.model.CukedoctorBuild;
 import com.github.cukedoctor.jenkins.model.FormatType;
 import com.github.cukedoctor.jenkins.model.TocType;
+import com.github.cukedoctor.parser.FeatureParser;
 
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.slaves.DumbSlave;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class CucumberLivingDocumentationIT {
@@ -121,4 +152,715 @@ public class CucumberLivingDocumentationIT {
 		Assert.assertTrue("It should run on slave",build.getBuiltOn().equals(slave));
         assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.html").exists());
 	}
+
+    @Test
+    public void shouldReuseDocumentationWhenInputsDidNotChange() throws Exception{
+        //given
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+        FreeStyleBuild firstBuild = jenkins.buildAndAssertSuccess(project);
+
+        //when
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+        //then
+        assertFalse(firstBuild.getAction(CukedoctorBuildAction.class).isReused());
+        jenkins.assertLogContains("Documentation inputs did not change since build #" + firstBuild.getNumber(), build);
+        jenkins.assertLogContains("Documentation generated successfully!",build);
+        CukedoctorBuildAction action = build.getAction(CukedoctorBuildAction.class);
+        assertTrue(action.isReused());
+        assertEquals(firstBuild.getNumber(), action.getReusedFrom().intValue());
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.html").exists());
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/themes").exists());
+    }
+
+    @Test
+    public void shouldGenerateHtmlAndPdfDocumentationOfDifferentJobsConcurrently() throws Exception{
+        //given
+        FreeStyleProject htmlProject = jenkins.createFreeStyleProject("html");
+        htmlProject.setScm(new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL()));
+        htmlProject.getPublishersList().add(new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false));
+        FreeStyleProject pdfProject = jenkins.createFreeStyleProject("pdf");
+        pdfProject.setScm(new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL()));
+        pdfProject.getPublishersList().add(new CukedoctorPublisher(null, FormatType.PDF, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false));
+
+        //when
+        QueueTaskFuture<FreeStyleBuild> htmlBuild = htmlProject.scheduleBuild2(0);
+        QueueTaskFuture<FreeStyleBuild> pdfBuild = pdfProject.scheduleBuild2(0);
+
+        //then
+        FreeStyleBuild html = jenkins.assertBuildStatusSuccess(htmlBuild);
+        FreeStyleBuild pdf = jenkins.assertBuildStatusSuccess(pdfBuild);
+        assertTrue(new File(html.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.html").exists());
+        assertTrue(new File(html.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/themes").exists());
+        assertTrue(new File(pdf.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.pdf").exists());
+        assertNull(System.getProperty("cukedoctor.disable-extensions"));
+    }
+
+    @Test
+    public void shouldRenderLivingDocumentationOnSlaveNode() throws Exception{
+        DumbSlave slave = jenkins.createOnlineSlave();
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        project.setAssignedNode(slave);
+
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.ALL, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        publisher.setRenderOnAgent(true);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Found 4 feature(s)...",build);
+        jenkins.assertLogContains("Documentation rendered on the build node",build);
+        jenkins.assertLogContains("discover json files:",build);
+        jenkins.assertLogNotContains("parse features:",build);
+        jenkins.assertLogContains("Documentation generated successfully!",build);
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.html").exists());
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.pdf").exists());
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/themes").exists());
+        assertFalse(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.adoc").exists());
+    }
+
+    @Test
+    public void shouldServeHtmlDocumentationWithTheme() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation-asciidoctor.html.gz").exists());
+        WebResponse compressed = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/docsHtml").getWebResponse();
+        String html = compressed.getContentAsString();
+
+        assertEquals("gzip", compressed.getResponseHeaderValue("Content-Encoding"));
+        assertTrue(html.contains("Living Documentation"));
+        assertEquals(1, html.split("<style").length - 1);
+        assertTrue(html.indexOf("<style") < html.indexOf("</head>"));
+        //themed on the fly when client does not accept gzip
+        WebRequest identity = new WebRequest(new URL(jenkins.getURL(), build.getUrl() + "cucumber-living-documentation/docsHtml"));
+        identity.setAdditionalHeader("Accept-Encoding", "identity");
+        WebResponse themed = jenkins.createWebClient().loadWebResponse(identity);
+        assertNull(themed.getResponseHeaderValue("Content-Encoding"));
+        assertEquals(html, themed.getContentAsString());
+    }
+
+    @Test
+    public void shouldNotApplyThemeInsideHtmlComments() throws Exception{
+        File theme = new File(jenkins.jenkins.getRootDir(), "theme.css");
+        Files.write(theme.toPath(), "body{}".getBytes(StandardCharsets.UTF_8));
+        String head = "<!--<style>x</style>--><!--</head>--><!--old <style>y</style> </head>--><!DOCTYPE-like>";
+        String html = "<html><head>" + head + "<style>old</style></head><body></body></html>";
+        ByteArrayOutputStream themed = new ByteArrayOutputStream();
+
+        ThemeInjector.inject(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)), theme, themed);
+
+        assertEquals("<html><head>" + head + "<style> body{}</style></head><body></body></html>", new String(themed.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldNotServeHtmlDocumentationWithInvalidThemeName() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        JenkinsRule.WebClient webClient = jenkins.createWebClient();
+        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        String docsUrl = build.getUrl() + "cucumber-living-documentation/docsHtml";
+
+        assertEquals(200, webClient.goTo(docsUrl + "?theme=asciidoctor", null).getWebResponse().getStatusCode());
+        assertEquals(404, webClient.goTo(docsUrl + "?theme=..%2Fthemes%2Fasciidoctor", null).getWebResponse().getStatusCode());
+        assertEquals(404, webClient.goTo(docsUrl + "?theme=asciidoctor.css%00", null).getWebResponse().getStatusCode());
+        assertEquals(404, webClient.goTo(docsUrl + "?theme=", null).getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void shouldServeConditionalAndPartialDocumentation() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.PDF, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        File pdf = new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.pdf");
+        URL docsUrl = new URL(jenkins.getURL(), build.getUrl() + "cucumber-living-documentation/docsPdf");
+        JenkinsRule.WebClient webClient = jenkins.createWebClient();
+        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+
+        WebResponse full = webClient.loadWebResponse(new WebRequest(docsUrl));
+        assertEquals(200, full.getStatusCode());
+        assertEquals(String.valueOf(pdf.length()), full.getResponseHeaderValue("Content-Length"));
+        String etag = full.getResponseHeaderValue("ETag");
+        assertNotNull(etag);
+
+        WebRequest conditional = new WebRequest(docsUrl);
+        conditional.setAdditionalHeader("If-None-Match", etag);
+        assertEquals(304, webClient.loadWebResponse(conditional).getStatusCode());
+
+        WebRequest partial = new WebRequest(docsUrl);
+        partial.setAdditionalHeader("Range", "bytes=0-9");
+        WebResponse range = webClient.loadWebResponse(partial);
+        assertEquals(206, range.getStatusCode());
+        assertEquals("bytes 0-9/" + pdf.length(), range.getResponseHeaderValue("Content-Range"));
+        assertEquals("%PDF", range.getContentAsString().substring(0, 4));
+
+        WebRequest unsatisfiable = new WebRequest(docsUrl);
+        unsatisfiable.setAdditionalHeader("Range", "bytes=" + pdf.length() + "-");
+        assertEquals(416, webClient.loadWebResponse(unsatisfiable).getStatusCode());
+    }
+
+    @Test
+    public void shouldIndexBuildsWhichPublishedDocumentation() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild firstBuild = jenkins.buildAndAssertSuccess(project);
+        FreeStyleBuild secondBuild = jenkins.buildAndAssertSuccess(project);
+
+        assertTrue(new File(project.getRootDir(), "cucumber-living-documentation.xml").exists());
+        List<CukedoctorBuild> builds = project.getAction(CukedoctorProjectAction.class).getBuilds();
+        assertEquals(2, builds.size());
+        assertEquals(secondBuild.getNumber(), builds.get(0).getBuildNumber().intValue());
+
+        JSONObject history = JSONObject.fromObject(jenkins.createWebClient()
+                .goTo(project.getUrl() + "cucumber-living-documentation/history?offset=1&size=1", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(2, history.getInt("total"));
+        assertEquals(1, history.getJSONArray("builds").size());
+        assertEquals(firstBuild.getNumber(), history.getJSONArray("builds").getJSONObject(0).getInt("number"));
+
+        firstBuild.delete();
+
+        builds = DocumentationIndex.of(project).getBuilds();
+        assertEquals(1, builds.size());
+        assertEquals(secondBuild.getNumber(), builds.get(0).getBuildNumber().intValue());
+    }
+
+    @Test
+    public void shouldGenerateLivingDocumentationOfFeaturesWithEmbeddings() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("cucumber-js.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/cucumberjs/cucumber-js.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("feature(s)...",build);
+        jenkins.assertLogContains("Documentation generated successfully!",build);
+        assertTrue(new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/documentation.html").exists());
+    }
+
+    @Test
+    public void shouldExtractEmbeddingsIntoAttachments() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("embeddings.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/embeddings/embeddings.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        File attachmentsDir = new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/attachments");
+        //the same screenshot is attached twice but stored once
+        String[] attachments = attachmentsDir.list();
+        assertNotNull(attachments);
+        assertEquals(2, attachments.length);
+
+        String html = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/docsHtml").getWebResponse().getContentAsString();
+        for (String attachment : attachments) {
+            assertTrue(html.contains("attachments/" + attachment));
+            assertEquals(200, jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/attachments/" + attachment,
+                    null).getWebResponse().getStatusCode());
+            //relative links also resolve when the documentation url ends with a slash
+            assertEquals(200, jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/docsHtml/attachments/" + attachment,
+                    null).getWebResponse().getStatusCode());
+        }
+        assertTrue(html.contains("loading=\"lazy\""));
+    }
+
+    @Test
+    public void shouldKeepAttachmentsOfFeaturesWithTheSameNameApart() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath workspace = build.getWorkspace();
+                workspace.child("embeddings.json").copyFrom(CucumberLivingDocumentationIT.class.getResource("/json-output/embeddings/embeddings.json"));
+                workspace.child("same-name.json").copyFrom(CucumberLivingDocumentationIT.class.getResource("/json-output/embeddings/same-name.json"));
+                return true;
+            }
+        });
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.MULTI_PAGE, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        File docsDir = new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL);
+        String otherLog = null;
+        for (String attachment : new File(docsDir, FeatureAttachment.ATTACHMENTS_DIR).list()) {
+            if (new String(Files.readAllBytes(new File(docsDir, FeatureAttachment.ATTACHMENTS_DIR + "/" + attachment).toPath()), StandardCharsets.UTF_8).equals("another feature log")) {
+                otherLog = attachment;
+            }
+        }
+        assertNotNull(otherLog);
+
+        //both features are named 'Screenshots', each page only lists the attachments of its own feature
+        String first = new String(Files.readAllBytes(new File(docsDir, "pages/001-screenshots.html").toPath()), StandardCharsets.UTF_8);
+        String second = new String(Files.readAllBytes(new File(docsDir, "pages/002-screenshots.html").toPath()), StandardCharsets.UTF_8);
+        assertTrue(first.contains(".png"));
+        assertFalse(first.contains(otherLog));
+        assertTrue(second.contains(otherLog));
+        assertFalse(second.contains(".png"));
+    }
+
+    @Test
+    public void shouldGenerateMultiPageLivingDocumentation() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.MULTI_PAGE, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Documentation generated successfully!",build);
+        File pagesDir = new File(build.getRootDir().getAbsolutePath()+"/cucumber-living-documentation/pages");
+        assertTrue(new File(pagesDir, "index.html").exists());
+        assertTrue(new File(pagesDir, "001-open-blocks.html").exists());
+
+        String index = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/pages/index.html").getWebResponse().getContentAsString();
+        assertTrue(index.contains("001-open-blocks.html"));
+        String page = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/pages/001-open-blocks.html").getWebResponse().getContentAsString();
+        assertTrue(page.contains("index.html"));
+    }
+
+    @Test
+    public void shouldKeepRenderingTimeoutsPerFormat() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.ALL, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        assertEquals(CukedoctorPublisher.DEFAULT_HTML_TIMEOUT, publisher.getHtmlTimeout());
+        assertEquals(CukedoctorPublisher.DEFAULT_PDF_TIMEOUT, publisher.getPdfTimeout());
+        publisher.setPdfTimeout(30);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        jenkins.configRoundtrip(project);
+        CukedoctorPublisher saved = project.getPublishersList().get(CukedoctorPublisher.class);
+        assertEquals(CukedoctorPublisher.DEFAULT_HTML_TIMEOUT, saved.getHtmlTimeout());
+        assertEquals(30, saved.getPdfTimeout());
+    }
+
+    @Test
+    public void shouldRecordPublishPhases() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Documentation publish phases:",build);
+        jenkins.assertLogContains("parse features:",build);
+        jenkins.assertLogContains("rendering html5:",build);
+        PublishMetrics metrics = build.getAction(CukedoctorBuildAction.class).getPublishMetrics();
+        assertNotNull(metrics);
+        PublishMetrics.Phase parse = metrics.getPhases().get(0);
+        assertEquals("parse features", parse.getName());
+        assertEquals(4, parse.getCount());
+        assertTrue(parse.getBytes() > 0);
+    }
+
+    @Test
+    public void shouldOnlyUseDiscoveredCucumberReports() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        final URL report = CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json");
+        project.setScm(new SingleFileSCM("asciidoctor.json", report));
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath workspace = build.getWorkspace();
+                workspace.child("package.json").write("{\"name\": \"not-a-report\"}", "UTF-8");
+                workspace.child("node_modules/lib/report.json").copyFrom(report);
+                workspace.child("docs/cukedoctor-intro.adoc").write("= Intro", "UTF-8");
+                return true;
+            }
+        });
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        publisher.setCopyJsonFiles(true);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Found 1 cucumber json file(s) and 1 customization file(s), skipped 1 json file(s) which are not cucumber reports.",build);
+        jenkins.assertLogContains("Found 4 feature(s)...",build);
+        File docsDir = new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL);
+        assertTrue(new File(docsDir, "asciidoctor.json").exists());
+        assertFalse(new File(docsDir, "package.json").exists());
+        assertFalse(new File(docsDir, "node_modules").exists());
+        assertTrue(new File(docsDir, "docs/cukedoctor-intro.adoc").exists());
+    }
+
+    @Test
+    public void shouldNotReuseDocumentationWhichIsRenderingOrFailed() throws Exception{
+        //given
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+        FreeStyleBuild failedBuild = jenkins.buildAndAssertSuccess(project);
+        CukedoctorBuildAction failedAction = failedBuild.getAction(CukedoctorBuildAction.class);
+        failedAction.finishRendering(false, failedAction.getPublishMetrics());
+
+        //when
+        FreeStyleBuild renderingBuild = jenkins.buildAndAssertSuccess(project);
+        renderingBuild.getAction(CukedoctorBuildAction.class).startRendering(new ArrayList<RenderControl>());
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+        //then
+        assertTrue(new File(failedBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html").exists());
+        assertFalse(renderingBuild.getAction(CukedoctorBuildAction.class).isReused());
+        assertFalse(build.getAction(CukedoctorBuildAction.class).isReused());
+        jenkins.assertLogNotContains("Documentation inputs did not change", renderingBuild);
+        jenkins.assertLogNotContains("Documentation inputs did not change", build);
+    }
+
+    @Test
+    public void shouldCopyDiscoveredFilesWithSpecialCharactersInTheirNames() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        final URL report = CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json");
+        project.setScm(new SingleFileSCM("asciidoctor.json", report));
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath workspace = build.getWorkspace();
+                workspace.child("reports/cucumber,report[1].json").copyFrom(report);
+                workspace.child("docs/intro,v[1].adoc").write("= Intro", "UTF-8");
+                return true;
+            }
+        });
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        publisher.setCopyJsonFiles(true);
+        publisher.setCustomizationFiles("docs/*.adoc");
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Found 2 cucumber json file(s) and 1 customization file(s)",build);
+        File docsDir = new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL);
+        assertTrue(new File(docsDir, "asciidoctor.json").exists());
+        assertTrue(new File(docsDir, "reports/cucumber,report[1].json").exists());
+        assertTrue(new File(docsDir, "docs/intro,v[1].adoc").exists());
+    }
+
+    @Test
+    public void shouldRenderLivingDocumentationInBackground() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        publisher.setRenderInBackground(true);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("Documentation is rendered in background",build);
+        CukedoctorBuildAction action = build.getAction(CukedoctorBuildAction.class);
+        assertNotNull(action);
+        long timeout = System.currentTimeMillis() + 120000;
+        while (action.isRendering() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(200);
+        }
+        assertFalse(action.isRendering());
+        assertFalse(action.getRenderingLog(), action.isRenderingFailed());
+        assertTrue(new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html").exists());
+        assertNotNull(action.getPublishMetrics());
+        assertEquals(build.getNumber(), DocumentationIndex.of(project).getBuilds().get(0).getBuildNumber().intValue());
+        String docs = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/docsHtml").getWebResponse().getContentAsString();
+        assertTrue(docs.contains("Living Documentation"));
+    }
+
+    @Test
+    public void shouldFailStaleBackgroundRenderingOnLoad() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        CukedoctorBuildAction action = new CukedoctorBuildAction(build, new CukedoctorBuild(FormatType.HTML, build.getNumber(), build.getTime()));
+        action.startRendering(new ArrayList<RenderControl>());
+        build.addAction(action);
+        build.save();
+
+        build.reload();
+        CukedoctorBuildAction loaded = build.getAction(CukedoctorBuildAction.class);
+        assertFalse(loaded.isRendering());
+        assertTrue(loaded.isRenderingFailed());
+        String page = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/").getWebResponse().getContentAsString();
+        assertTrue(page.contains("Documentation could not be rendered."));
+    }
+
+    @Test
+    public void shouldRenderLivingDocumentationOnDemand() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.ALL, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        publisher.setRenderOnDemand(true);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains("it is rendered when first viewed",build);
+        File docsDir = new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL);
+        assertTrue(new File(docsDir, "documentation.adoc").exists());
+        assertTrue(new File(docsDir, "documentation-pdf.adoc").exists());
+        assertFalse(new File(docsDir, "documentation.html").exists());
+        assertFalse(new File(docsDir, "documentation.pdf").exists());
+        assertTrue(build.getAction(CukedoctorBuildAction.class).isRenderOnDemand());
+
+        String html = jenkins.createWebClient().goTo(build.getUrl() + "cucumber-living-documentation/docsHtml").getWebResponse().getContentAsString();
+        assertTrue(html.contains("Living Documentation"));
+        assertTrue(new File(docsDir, "documentation.html").exists());
+        assertFalse(new File(docsDir, "documentation.pdf").exists());
+        assertTrue(RenderedDocsCache.get().size() >= new File(docsDir, "documentation.html").length());
+    }
+
+    @Test
+    public void shouldStoreIdenticalDocumentationOnce() throws Exception{
+        LivingDocumentationConfiguration.get().setDeduplicateDocumentation(true);
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild firstBuild = jenkins.buildAndAssertSuccess(project);
+        FreeStyleBuild secondBuild = jenkins.buildAndAssertSuccess(project);
+        File firstDocs = new File(firstBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html");
+        File secondDocs = new File(secondBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html");
+        assertTrue(Files.isSameFile(firstDocs.toPath(), secondDocs.toPath()));
+        String hash = DocumentationStore.hash(secondDocs);
+        DocumentationStore store = DocumentationStore.of(project);
+        assertEquals(2, store.getReferences(hash));
+
+        firstBuild.delete();
+        assertEquals(1, store.getReferences(hash));
+        assertTrue(secondDocs.exists());
+        String docs = jenkins.createWebClient().goTo(secondBuild.getUrl() + "cucumber-living-documentation/docsHtml").getWebResponse().getContentAsString();
+        assertTrue(docs.contains("Living Documentation"));
+
+        secondBuild.delete();
+        assertEquals(0, store.size());
+        assertFalse(new File(project.getRootDir(), DocumentationStore.STORE_DIR + "/" + hash.substring(0, 2) + "/" + hash).exists());
+    }
+
+    @Test
+    public void shouldCountStoreReferencesAgainWhenTheyAreLost() throws Exception{
+        LivingDocumentationConfiguration.get().setDeduplicateDocumentation(true);
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild firstBuild = jenkins.buildAndAssertSuccess(project);
+        FreeStyleBuild secondBuild = jenkins.buildAndAssertSuccess(project);
+        File secondDocs = new File(secondBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html");
+        String hash = DocumentationStore.hash(secondDocs);
+        File storeDir = new File(project.getRootDir(), DocumentationStore.STORE_DIR);
+        File blob = new File(storeDir, hash.substring(0, 2) + "/" + hash);
+        File unused = new File(storeDir, "00/" + Util.getDigestOf("unused"));
+        assertTrue(unused.getParentFile().mkdirs());
+        Files.write(unused.toPath(), "unused".getBytes(StandardCharsets.UTF_8));
+        Files.delete(new File(storeDir, "refs.xml").toPath());
+        DocumentationStore.unload(project);
+
+        //references are counted from the builds manifests, store files no build links are deleted
+        DocumentationStore store = DocumentationStore.of(project);
+        assertEquals(2, store.getReferences(hash));
+        assertFalse(unused.exists());
+        assertTrue(new File(storeDir, "refs.xml").exists());
+        assertTrue(secondDocs.canWrite());
+
+        firstBuild.delete();
+        secondBuild.delete();
+        assertEquals(0, store.size());
+        assertFalse(blob.exists());
+    }
+
+    @Test
+    public void shouldStoreDocumentationInRenamedJobDirectory() throws Exception{
+        LivingDocumentationConfiguration.get().setDeduplicateDocumentation(true);
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        SingleFileSCM scm = new SingleFileSCM("asciidoctor.json",
+                CucumberLivingDocumentationIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL());
+
+        project.setScm(scm);
+        CukedoctorPublisher publisher = new CukedoctorPublisher(null, FormatType.HTML, TocType.RIGHT, true, true, "Living Documentation",false,false,false,false,false);
+        project.getPublishersList().add(publisher);
+        project.save();
+
+        FreeStyleBuild firstBuild = jenkins.buildAndAssertSuccess(project);
+        File oldRootDir = project.getRootDir();
+        project.renameTo("renamed");
+        FreeStyleBuild secondBuild = jenkins.buildAndAssertSuccess(project);
+
+        File firstDocs = new File(firstBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html");
+        File secondDocs = new File(secondBuild.getRootDir(), CukedoctorBaseAction.BASE_URL + "/documentation.html");
+        assertTrue(Files.isSameFile(firstDocs.toPath(), secondDocs.toPath()));
+        String hash = DocumentationStore.hash(secondDocs);
+        assertEquals(2, DocumentationStore.of(project).getReferences(hash));
+        assertTrue(new File(project.getRootDir(), DocumentationStore.STORE_DIR + "/" + hash.substring(0, 2) + "/" + hash).exists());
+        assertFalse(new File(oldRootDir, DocumentationStore.STORE_DIR).exists());
+    }
+
+    @Test
+    public void shouldFillThemedDocsCacheOnce() throws Exception{
+        ThemedDocsCache cache = ThemedDocsCache.get();
+        cache.clear();
+        String key = "documentation.html|asciidoctor.css";
+
+        assertTrue(cache.startFill(key, 10));
+        //concurrent requests are streamed without keeping a copy
+        assertFalse(cache.startFill(key, 10));
+        cache.finishFill(key, null);
+        //a failed fill lets next request fill the entry
+        assertTrue(cache.startFill(key, 10));
+        cache.finishFill(key, new byte[10]);
+        assertFalse(cache.startFill(key, 10));
+        assertEquals(10, cache.get(key).length);
+        assertFalse(cache.startFill("too big", Long.MAX_VALUE));
+        cache.clear();
+    }
+
+    @Test
+    public void shouldForgetDocumentationIndexOfDeletedJob() throws Exception{
+        FreeStyleProject project = jenkins.createFreeStyleProject("test");
+        DocumentationIndex.of(project);
+        assertTrue(DocumentationIndex.isLoaded(project));
+
+        project.delete();
+        assertFalse(DocumentationIndex.isLoaded(project));
+    }
+
+    @Test
+    public void shouldStreamParseFeaturesLikeCukedoctor() throws Exception{
+        File jsonDir = new File(CucumberLivingDocumentationIT.class.getResource("/json-output/unicode").toURI());
+        List<Feature> expected = FeatureParser.findAndParse(jsonDir.getAbsolutePath());
+        List<Feature> features = new StreamingFeatureParser(null).parse(jsonDir, new String[]{"unicode.json"});
+
+        assertEquals(1, features.size());
+        assertEquals("Unicode \ud83d\ude00 names", features.get(0).getName());
+        //names, descriptions, docstrings, escapes and characters outside of the basic multilingual plane
+        assertEquals(Jenkins.XSTREAM2.toXML(expected), Jenkins.XSTREAM2.toXML(features));
+    }
+
+    @Test
+    public void shouldNotCountRenderQueueWaitInRenderTimeout() throws Exception{
+        LivingDocumentationConfiguration.get().setMaxConcurrentRenders(1);
+        RenderingScheduler scheduler = RenderingScheduler.get();
+        RenderingScheduler.RenderTask<Void> running = scheduler.submit("running", "html5", () -> {
+            Thread.sleep(1500);
+            return null;
+        });
+        RenderingScheduler.RenderTask<String> queued = scheduler.submit("queued", "html5", () -> "rendered");
+
+        //waits for the running render to free the slot, only its own rendering counts
+        assertEquals("rendered", queued.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(queued.getWaitTime() >= 1000);
+        running.get();
+    }
+
+    @Test
+    public void shouldReleaseRenderQueueSlotsOfCancelledRenders() throws Exception{
+        LivingDocumentationConfiguration.get().setMaxConcurrentRenders(1);
+        LivingDocumentationConfiguration.get().setRenderQueueCapacity(2);
+        RenderingScheduler scheduler = RenderingScheduler.get();
+        final CountDownLatch release = new CountDownLatch(1);
+        RenderingScheduler.RenderTask<Void> running = scheduler.submit("running", "html5", () -> {
+            release.await();
+            return null;
+        });
+        scheduler.submit("aborted", "html5", () -> "rendered").cancel(false);
+        scheduler.submit("aborted", "pdf", () -> "rendered").cancel(false);
+        assertEquals(0, scheduler.getQueued());
+
+        //cancelled renders do not fill the queue anymore
+        RenderingScheduler.RenderTask<String> html = scheduler.submit("queued", "html5", () -> "html");
+        RenderingScheduler.RenderTask<String> pdf = scheduler.submit("queued", "pdf", () -> "pdf");
+        assertEquals(2, scheduler.getQueued());
+        release.countDown();
+        running.get();
+        assertEquals("html", html.get(10, TimeUnit.SECONDS));
+        assertEquals("pdf", pdf.get(10, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void shouldRenderWithCopyOfCukedoctorGlobalAttributes() throws Exception{
+        DocumentAttributes global = GlobalConfig.getInstance().getDocumentAttributes();
+        String globalAttributes = Jenkins.XSTREAM2.toXML(global);
+        DocumentationGenerator generator = new DocumentationGenerator(FormatType.PDF, TocType.LEFT, "Copied attributes", true, true,
+                false, false, false, false, false);
+
+        DocumentAttributes attributes = generator.createDocumentAttributes("pdf");
+
+        assertEquals("pdf", attributes.getBackend());
+        assertEquals("Copied attributes", attributes.getDocTitle());
+        //defaults and overrides of cukedoctor global configuration are kept, the shared instance is left as is
+        assertEquals(globalAttributes, Jenkins.XSTREAM2.toXML(DocumentationGenerator.copyOf(global)));
+        assertEquals(globalAttributes, Jenkins.XSTREAM2.toXML(global));
+    }
 }
@@ -0,0 +1,225 @@
+package com.github.cukedoctor.jenkins;
+
+import com.github.cukedoctor.jenkins.model.FormatType;
+import com.github.cukedoctor.jenkins.model.TocType;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SingleFileSCM;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of documentation serving: concurrent requests to the themed html documentation (one target per theme),
+ * the pdf and the all documentation page, served by {@link DocsRenderer} and {@link CukedoctorBuildAction#doDynamic}.
+ * <p>
+ * It only runs when the <code>loadTest</code> system property is set, e.g.
+ * <code>mvn test -Dtest=DocumentationServingLoadIT -DloadTest -DloadTest.concurrency=200 -DloadTest.requests=2000</code>.
+ * Throughput, latency percentiles and allocation rate are printed per target. <code>loadTest.maxP99Millis</code> makes
+ * the test fail when a target 99th percentile latency is higher.
+ */
+public class DocumentationServingLoadIT {
+
+    private static final int CONCURRENCY = Integer.getInteger("loadTest.concurrency", 200);
+
+    private static final int REQUESTS = Integer.getInteger("loadTest.requests", 2000);
+
+    private static final String THEMES = System.getProperty("loadTest.themes", "");
+
+    private static final long MAX_P99_MILLIS = Long.getLong("loadTest.maxP99Millis", 0);
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Before
+    public void onlyWhenRequested() {
+        Assume.assumeTrue("Load test is only run with -DloadTest", System.getProperty("loadTest") != null);
+    }
+
+    @Test
+    public void shouldServeDocumentationUnderConcurrentLoad() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject("load");
+        project.setScm(new SingleFileSCM("asciidoctor.json",
+                DocumentationServingLoadIT.class.getResource("/json-output/asciidoctor/asciidoctor.json").toURI().toURL()));
+        project.getPublishersList().add(new CukedoctorPublisher(null, FormatType.ALL, TocType.RIGHT, true, true, "Living Documentation", false, false, false, false, false));
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+        String docsUrl = jenkins.getURL() + build.getUrl() + CukedoctorBaseAction.BASE_URL + "/";
+        Map<String, String> targets = new LinkedHashMap<>();
+        for (String theme : getThemes(new File(build.getRootDir(), CukedoctorBaseAction.BASE_URL + "/themes"))) {
+            targets.put("docsHtml theme=" + theme, docsUrl + "docsHtml?theme=" + theme);
+        }
+        targets.put("docsPdf", docsUrl + "docsPdf");
+        targets.put("all docs page", docsUrl + "docs");
+        targets.put("doDynamic", docsUrl + "documentation-all.html");
+
+        System.out.println(String.format("Documentation serving load test: %d concurrent clients, %d requests per target", CONCURRENCY, REQUESTS));
+        System.out.println(String.format("%-30s %8s %10s %8s %8s %8s %8s %10s %12s", "target", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "MB/s sent", "alloc MB/s"));
+        List<String> slowTargets = new ArrayList<>();
+        int errors = 0;
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            load(new URL(target.getValue()), Math.min(REQUESTS, 50), CONCURRENCY); //warm up
+            Result result = load(new URL(target.getValue()), REQUESTS, CONCURRENCY);
+            System.out.println(result.format(target.getKey()));
+            errors += result.errors.get();
+            if (MAX_P99_MILLIS > 0 && result.percentileMillis(99) > MAX_P99_MILLIS) {
+                slowTargets.add(target.getKey());
+            }
+        }
+        assertEquals("Requests failed under load", 0, errors);
+        assertTrue("99th percentile latency higher than " + MAX_P99_MILLIS + " ms for " + slowTargets, slowTargets.isEmpty());
+    }
+
+    private static List<String> getThemes(File themesDir) {
+        if (!THEMES.isEmpty()) {
+            return Arrays.asList(THEMES.split(","));
+        }
+        List<String> themes = new ArrayList<>();
+        String[] cssFiles = themesDir.list((dir, name) -> name.endsWith(".css"));
+        if (cssFiles != null) {
+            for (String cssFile : cssFiles) {
+                themes.add(cssFile.substring(0, cssFile.length() - ".css".length()));
+            }
+        }
+        if (themes.isEmpty()) {
+            themes.add(DocsRenderer.DEFAULT_THEME);
+        }
+        return themes;
+    }
+
+    /**
+     * Sends <code>requests</code> GET requests from <code>concurrency</code> clients released at the same time.
+     */
+    private static Result load(final URL url, final int requests, int concurrency) throws Exception {
+        final Result result = new Result(requests);
+        final AtomicInteger remaining = new AtomicInteger(requests);
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(clients.submit(() -> {
+                    start.await();
+                    while (remaining.getAndDecrement() > 0) {
+                        result.add(request(url, result));
+                    }
+                    return null;
+                }));
+            }
+            long allocatedBefore = getAllocatedBytes();
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.MINUTES);
+            }
+            result.elapsedNanos = System.nanoTime() - startNanos;
+            result.allocatedBytes = allocatedBefore < 0 ? -1 : getAllocatedBytes() - allocatedBefore;
+        } finally {
+            clients.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * @return request latency in nanoseconds, the whole response body is read
+     */
+    private static long request(URL url, Result result) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                result.errors.incrementAndGet();
+            }
+            try (InputStream body = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while (body != null && (read = body.read(buffer)) != -1) {
+                    result.bytes.addAndGet(read);
+                }
+            }
+        } catch (IOException e) {
+            result.errors.incrementAndGet();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return bytes allocated so far by live threads of this JVM (Jenkins and load test clients), -1 if not supported
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long allocated = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            allocated += Math.max(bytes, 0);
+        }
+        return allocated;
+    }
+
+    private static final class Result {
+
+        private final long[] latencies;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final AtomicInteger errors = new AtomicInteger();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private long elapsedNanos;
+
+        private long allocatedBytes;
+
+        private Result(int requests) {
+            latencies = new long[requests];
+        }
+
+        private void add(long latencyNanos) {
+            latencies[count.getAndIncrement()] = latencyNanos;
+        }
+
+        private long percentileMillis(int percentile) {
+            long[] sorted = Arrays.copyOf(latencies, count.get());
+            Arrays.sort(sorted);
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1);
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(index, 0)]);
+        }
+
+        private String format(String target) {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%-30s %8d %10.1f %8d %8d %8d %8d %10.1f %12s", target, errors.get(), count.get() / seconds,
+                    percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100),
+                    bytes.get() / seconds / (1024 * 1024), allocatedBytes < 0 ? "n/a" : String.format("%.1f", allocatedBytes / seconds / (1024 * 1024)));
+        }
+    }
+}